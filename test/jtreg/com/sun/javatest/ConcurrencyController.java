@@ -0,0 +1,247 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Periodically adjusts the number of tests that may be run at once,
+ * according to the load on the system. The number of active slots is
+ * reduced when the system load average is high compared to the number
+ * of processors, when free memory is low, or when tests are timing out;
+ * it is slowly increased again, up to the concurrency given for the
+ * test run, while the system is lightly loaded.
+ * <p>
+ * The load average and free memory are read from <code>/proc</code>,
+ * and are ignored on systems where that information is not available.
+ * <p>
+ * The controller is enabled by setting the system property
+ * <code>javatest.adaptiveConcurrency</code> to <code>true</code>.
+ * The following system properties may be used to tune it:
+ * <dl>
+ * <dt><code>javatest.adaptiveConcurrency.interval</code>
+ * <dd>the interval, in seconds, between adjustments (default 5)
+ * <dt><code>javatest.adaptiveConcurrency.maxLoad</code>
+ * <dd>the load average per processor above which the number of
+ * slots is reduced, as a percentage (default 150)
+ * <dt><code>javatest.adaptiveConcurrency.minFreeMemory</code>
+ * <dd>the free memory, in megabytes, below which the number of
+ * slots is reduced (default 512)
+ * </dl>
+ */
+class ConcurrencyController
+{
+    /**
+     * Check if adaptive concurrency has been requested.
+     * @return true if adaptive concurrency has been requested
+     */
+    static boolean isEnabled() {
+        return Boolean.getBoolean("javatest.adaptiveConcurrency");
+    }
+
+    /**
+     * Create a controller to adjust the number of slots in an allocator.
+     * @param slots the allocator whose slots will be adjusted
+     * @param maxTests the maximum number of slots to allow
+     */
+    ConcurrencyController(SlotAllocator slots, int maxTests) {
+        this.slots = slots;
+        this.maxTests = maxTests;
+        processors = Runtime.getRuntime().availableProcessors();
+
+        // start with one test per processor, and adjust from there
+        slots.setMaxTests(Math.max(1, Math.min(maxTests, processors)));
+    }
+
+    /**
+     * Start the thread which periodically adjusts the number of slots.
+     */
+    synchronized void start() {
+        worker = new Thread("ConcurrencyController") {
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        sleep(interval);
+                        adjust();
+                    }
+                }
+                catch (InterruptedException e) {
+                    // stop
+                }
+            }
+        };
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stop the thread which periodically adjusts the number of slots.
+     */
+    synchronized void stop() {
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+    }
+
+    /**
+     * Record that a test has completed.
+     * @param tr the result of the test
+     */
+    void finishedTest(TestResult tr) {
+        finishedCount.incrementAndGet();
+        try {
+            if ("true".equals(tr.getProperty(TestResult.TIMED_OUT)))
+                timedOutCount.incrementAndGet();
+        }
+        catch (TestResult.Fault e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Adjust the number of slots according to the current state of the system,
+     * and the tests that have completed since the last adjustment.
+     */
+    void adjust() {
+        int finished = finishedCount.getAndSet(0);
+        int timedOut = timedOutCount.getAndSet(0);
+        double load = getLoadAverage();
+        long freeMemory = getFreeMemory();
+
+        boolean overloaded =
+            (load >= 0 && load > processors * maxLoad)
+            || (freeMemory >= 0 && freeMemory < minFreeMemory)
+            || (finished > 0 && timedOut * 100 / finished >= MAX_TIMEOUT_PERCENT);
+
+        boolean underloaded =
+            (load < 0 || load < processors)
+            && (freeMemory < 0 || freeMemory > 2 * minFreeMemory)
+            && timedOut == 0;
+
+        int current = slots.getMaxTests();
+        if (overloaded)
+            slots.setMaxTests(Math.max(1, current - Math.max(1, current / 4)));
+        else if (underloaded && current < maxTests)
+            slots.setMaxTests(current + 1);
+    }
+
+    /**
+     * Get the one minute load average, or -1 if it is not available.
+     */
+    private static double getLoadAverage() {
+        String line = readFirstLine(LOADAVG_FILE);
+        if (line == null)
+            return -1;
+        try {
+            int sp = line.indexOf(' ');
+            return Double.parseDouble(sp == -1 ? line : line.substring(0, sp));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Get the available memory in bytes, or -1 if it is not available.
+     */
+    private static long getFreeMemory() {
+        if (!MEMINFO_FILE.canRead())
+            return -1;
+
+        long memFree = -1;
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(MEMINFO_FILE));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    // MemAvailable is the best estimate, if the kernel provides it
+                    if (line.startsWith("MemAvailable:"))
+                        return parseKB(line);
+                    else if (line.startsWith("MemFree:"))
+                        memFree = parseKB(line);
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            return -1;
+        }
+        return memFree;
+    }
+
+    private static long parseKB(String line) {
+        String[] fields = line.trim().split("\\s+");
+        try {
+            return (fields.length < 2 ? -1 : Long.parseLong(fields[1]) * 1024);
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String readFirstLine(File f) {
+        if (!f.canRead())
+            return null;
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(f));
+            try {
+                return in.readLine();
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    private final SlotAllocator slots;
+    private final int maxTests;
+    private final int processors;
+    private final AtomicInteger finishedCount = new AtomicInteger();
+    private final AtomicInteger timedOutCount = new AtomicInteger();
+    private Thread worker;
+
+    private final long interval =
+        Integer.getInteger("javatest.adaptiveConcurrency.interval", 5).intValue() * 1000L;
+    private final double maxLoad =
+        Integer.getInteger("javatest.adaptiveConcurrency.maxLoad", 150).intValue() / 100.0;
+    private final long minFreeMemory =
+        Integer.getInteger("javatest.adaptiveConcurrency.minFreeMemory", 512).intValue() * 1024L * 1024L;
+
+    private static final int MAX_TIMEOUT_PERCENT = 10;
+    private static final File LOADAVG_FILE = new File("/proc/loadavg");
+    private static final File MEMINFO_FILE = new File("/proc/meminfo");
+}
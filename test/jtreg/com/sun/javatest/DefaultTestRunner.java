@@ -29,6 +29,7 @@ package com.sun.javatest;
 import java.io.PrintWriter;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import com.sun.javatest.util.BackupPolicy;
@@ -39,6 +40,12 @@ import com.sun.javatest.util.I18NResourceBundle;
  * used throughout the JT Harness 2.x harness.  It supplies all the basic
  * for creating threads for each test, running the <code>Script</code>,
  * and handling timeouts.
+ * <p>
+ * Tests which declare exclusive resources, or a weight, are held back
+ * until they can be run without conflicting with the tests that are
+ * already running; see {@link PooledTestRunner}. Unlike that runner,
+ * the worker that picked such a test waits for it to become runnable,
+ * rather than going on to later tests.
  */
 public class DefaultTestRunner extends TestRunner
 {
@@ -46,8 +53,10 @@ public class DefaultTestRunner extends TestRunner
         throws InterruptedException
     {
         this.testIter = testIter;
+        stopping = false;
 
         Thread[] threads = new Thread[getConcurrency()];
+        final SlotAllocator slots = SlotAllocator.create(threads.length);
         activeThreads = new HashSet();
         allPassed = true;
 
@@ -63,8 +72,21 @@ public class DefaultTestRunner extends TestRunner
                                     try {
                                         TestDescription td;
                                         while ((td = nextTest()) != null) {
-                                            if (!runTest(td))
-                                                allPassed = false;
+                                            try {
+                                                slots.allocate(td);
+                                            }
+                                            catch (InterruptedException e) {
+                                                // the test run is being stopped
+                                                break;
+                                            }
+
+                                            try {
+                                                if (!runTest(td))
+                                                    allPassed = false;
+                                            }
+                                            finally {
+                                                slots.release(td);
+                                            }
                                         }
                                     }
                                     finally {
@@ -148,7 +170,13 @@ public class DefaultTestRunner extends TestRunner
         }
     }
 
-    private boolean runTest(TestDescription td) {
+    /**
+     * Create and run the script for a single test, notifying observers
+     * as the test starts and finishes.
+     * @param td the test to be run
+     * @return true if and only if the test was run and passed
+     */
+    boolean runTest(TestDescription td) {
         WorkDirectory workDir = getWorkDirectory();
         TestResult result = null;
 
@@ -160,6 +188,10 @@ public class DefaultTestRunner extends TestRunner
             String[] exclTestCases = getExcludedTestCases(td);
             Script s = testSuite.createScript(td, exclTestCases, env.copy(), workDir, backupPolicy);
 
+            Map prev = previousAttempts;
+            if (prev != null && prev.containsKey(td.getRootRelativeURL()))
+                s.initPreviousAttempt((TestResult) (prev.get(td.getRootRelativeURL())));
+
             notifyStartingTest(s.getTestResult());
 
             result = s.getTestResult();
@@ -204,6 +236,17 @@ public class DefaultTestRunner extends TestRunner
         return (result.getStatus().getType() == Status.PASSED);
     }
 
+    /**
+     * Set the results of the earlier attempts to run tests that are being
+     * run again in the same test run, so that the new results can include
+     * the earlier attempts.
+     * @param m a map from the names of tests to the results of their most
+     * recent earlier attempt, or null if tests are not being run again
+     */
+    void setPreviousAttempts(Map m) {
+        previousAttempts = m;
+    }
+
     private TestResult createErrorResult(TestDescription td, String reason, Throwable t) { // make more i18n
         Status s = Status.error(reason);
         TestResult tr;
@@ -249,6 +292,7 @@ public class DefaultTestRunner extends TestRunner
     private Set activeThreads;
     private boolean allPassed;
     private boolean stopping;
+    private volatile Map previousAttempts;
 
     private static I18NResourceBundle i18n = I18NResourceBundle.getBundleForClass(DefaultTestRunner.class);
 }
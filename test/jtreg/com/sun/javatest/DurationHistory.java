@@ -0,0 +1,283 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.sun.javatest.util.I18NResourceBundle;
+
+/**
+ * The recent execution times of the tests in a work directory.
+ * The history is recorded by the harness as tests complete, and is
+ * saved in the work directory at the end of each test run. It can be
+ * used to estimate how long a test is likely to take the next time it
+ * is run.
+ */
+public class DurationHistory
+{
+    /**
+     * Read the duration history for a work directory. If the work directory
+     * does not contain any history, or if the history cannot be read, an empty
+     * history is returned.
+     * @param wd the work directory whose history should be read
+     * @return the duration history for the work directory
+     */
+    public static DurationHistory open(WorkDirectory wd) {
+        DurationHistory h = new DurationHistory(wd);
+        File f = wd.getSystemFile(FILENAME);
+        if (f.exists()) {
+            try {
+                h.read(f);
+            }
+            catch (IOException e) {
+                wd.log(i18n, "dh.cantRead", new Object[] { f, e });
+                h.entries.clear();
+            }
+        }
+        return h;
+    }
+
+    private DurationHistory(WorkDirectory wd) {
+        workDir = wd;
+    }
+
+    /**
+     * Record the time taken to execute a test.
+     * Only the most recent few times are retained for each test.
+     * @param testName the name of the test
+     * @param elapsed the time, in milliseconds, taken to execute the test
+     */
+    public synchronized void record(String testName, long elapsed) {
+        Entry e = (Entry) (entries.get(testName));
+        if (e == null) {
+            e = new Entry();
+            entries.put(testName, e);
+        }
+        e.add(elapsed);
+        modified = true;
+    }
+
+    /**
+     * Get the recorded execution times for a test, oldest first.
+     * @param testName the name of the test
+     * @return the recorded execution times, in milliseconds, for the test;
+     * the array is empty if no times have been recorded
+     */
+    public synchronized long[] getSamples(String testName) {
+        Entry e = (Entry) (entries.get(testName));
+        if (e == null)
+            return new long[0];
+        long[] result = new long[e.size];
+        System.arraycopy(e.samples, 0, result, 0, e.size);
+        return result;
+    }
+
+    /**
+     * Replace the recorded execution times for a test, such as when merging
+     * the history of another work directory into this one.
+     * Only the most recent few times are retained.
+     * @param testName the name of the test
+     * @param samples the execution times, in milliseconds, for the test,
+     * oldest first
+     */
+    public synchronized void setSamples(String testName, long[] samples) {
+        Entry e = new Entry();
+        for (int i = 0; i < samples.length; i++)
+            e.add(samples[i]);
+        entries.put(testName, e);
+        modified = true;
+    }
+
+    /**
+     * Get the names of the tests for which times have been recorded.
+     * @return the names of the tests for which times have been recorded,
+     * in alphabetical order
+     */
+    public synchronized String[] getTestNames() {
+        String[] names = (String[]) (entries.keySet().toArray(new String[entries.size()]));
+        Arrays.sort(names);
+        return names;
+    }
+
+    /**
+     * Get the expected time to execute a test, based on its recorded history.
+     * @param testName the name of the test
+     * @return the expected time, in milliseconds, to execute the test,
+     * or -1 if no times have been recorded for the test
+     * @see #getDefaultEstimate
+     */
+    public synchronized long getEstimate(String testName) {
+        Entry e = (Entry) (entries.get(testName));
+        return (e == null ? -1 : e.mean());
+    }
+
+    /**
+     * Get a percentile of the recorded execution times for a test,
+     * using the nearest-rank method.
+     * @param testName the name of the test
+     * @param pct the percentile, from 0 to 100
+     * @return the given percentile, in milliseconds, of the recorded
+     * execution times for the test, or -1 if no times have been recorded
+     * for the test
+     */
+    public synchronized long getPercentile(String testName, int pct) {
+        Entry e = (Entry) (entries.get(testName));
+        if (e == null || e.size == 0)
+            return -1;
+        long[] sorted = new long[e.size];
+        System.arraycopy(e.samples, 0, sorted, 0, e.size);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(pct / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    /**
+     * Get an estimate for the time to execute a test with no recorded
+     * history. This is the average of the estimates for the tests that do
+     * have a recorded history.
+     * @return an estimate of the time, in milliseconds, to execute a test,
+     * or -1 if no times have been recorded for any test
+     * @see #getEstimate
+     */
+    public synchronized long getDefaultEstimate() {
+        if (entries.size() == 0)
+            return -1;
+        long total = 0;
+        for (Iterator iter = entries.values().iterator(); iter.hasNext(); ) {
+            Entry e = (Entry) (iter.next());
+            total += e.mean();
+        }
+        return total / entries.size();
+    }
+
+    /**
+     * Get the number of tests for which times have been recorded.
+     * @return the number of tests for which times have been recorded
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Save the history in the work directory, if it has been modified
+     * since it was read.
+     * @throws IOException if there is a problem writing the history
+     */
+    public synchronized void save() throws IOException {
+        if (!modified)
+            return;
+
+        // write to a temporary file, then rename it, so that a concurrent
+        // reader never sees a partially written file
+        File f = workDir.getSystemFile(FILENAME);
+        File tmp = workDir.getSystemFile(FILENAME + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Iterator iter = entries.entrySet().iterator(); iter.hasNext(); ) {
+                Map.Entry me = (Map.Entry) (iter.next());
+                Entry e = (Entry) (me.getValue());
+                out.writeUTF((String) (me.getKey()));
+                out.writeByte(e.size);
+                for (int i = 0; i < e.size; i++)
+                    out.writeLong(e.samples[i]);
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if (f.exists() && !f.delete())
+            throw new IOException(i18n.getString("dh.cantDelete", f));
+        if (!tmp.renameTo(f))
+            throw new IOException(i18n.getString("dh.cantRename", new Object[] { tmp, f }));
+        modified = false;
+    }
+
+    private void read(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(i18n.getString("dh.badFile"));
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String name = in.readUTF();
+                int size = in.readByte();
+                if (size < 0 || size > MAX_SAMPLES)
+                    throw new IOException(i18n.getString("dh.badFile"));
+                Entry e = new Entry();
+                for (int j = 0; j < size; j++)
+                    e.add(in.readLong());
+                entries.put(name, e);
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static class Entry {
+        void add(long elapsed) {
+            if (size == samples.length) {
+                System.arraycopy(samples, 1, samples, 0, size - 1);
+                size--;
+            }
+            samples[size++] = Math.max(0, elapsed);
+        }
+
+        long mean() {
+            long total = 0;
+            for (int i = 0; i < size; i++)
+                total += samples[i];
+            return (size == 0 ? 0 : total / size);
+        }
+
+        long[] samples = new long[MAX_SAMPLES];
+        int size;
+    }
+
+    private WorkDirectory workDir;
+    private Map entries = new HashMap();
+    private boolean modified;
+
+    private static final String FILENAME = "durations.jtw";
+    private static final int MAGIC = 0x4A544431;   // "JTD1"
+    private static final int MAX_SAMPLES = 20;
+    private static I18NResourceBundle i18n = I18NResourceBundle.getBundleForClass(DurationHistory.class);
+}
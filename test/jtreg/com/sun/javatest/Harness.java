@@ -28,7 +28,12 @@ package com.sun.javatest;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.sun.javatest.httpd.HttpdServer;
 import com.sun.javatest.httpd.RootRegistry;
@@ -276,6 +281,20 @@ public class Harness
 
     //--------------------------------------------------------------------------
 
+    /**
+     * Get the test runner being used to execute the current or most recent
+     * test run. Observers may use this to obtain additional information
+     * provided by specific kinds of test runner, such as the per-worker
+     * statistics provided by {@link PooledTestRunner}.
+     *
+     * @return null if no test run has been started
+     */
+    public TestRunner getTestRunner() {
+        return testRunner;
+    }
+
+    //--------------------------------------------------------------------------
+
     /**
      * Add an observer to be notified during the execution of a test run.
      * Observers are notified of events in the reverse order they were added --
@@ -552,6 +571,33 @@ public class Harness
         return autostopThreshold;
     }
 
+    /**
+     * Set the maximum number of times a test may be run in a single test run.
+     * If this is greater than one, tests which fail or have errors are run
+     * again once all the other tests have been run, until they pass or the
+     * maximum number of attempts is reached. The result of each attempt
+     * includes the sections of the earlier attempts, and a test that passes
+     * after an earlier attempt failed is marked as
+     * {@link TestResult#FLAKY flaky}.
+     * The default is given by the system property
+     * <code>javatest.maxAttempts</code>, or 1 if that is not set.
+     * This value must be set before the run begins.
+     * @param n the maximum number of times a test may be run
+     * @see #getMaxAttempts
+     */
+    public void setMaxAttempts(int n) {
+        maxAttempts = Math.max(1, n);
+    }
+
+    /**
+     * Get the maximum number of times a test may be run in a single test run.
+     * @return the maximum number of times a test may be run
+     * @see #setMaxAttempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
     /**
      * Start a worker thread going to perform run tests asynchronously.
      */
@@ -684,6 +730,18 @@ public class Harness
         // use testIter to get specialized info, use raTestIter to get tests
         raTestIter = new ReadAheadIterator(testIter, readAheadMode, DEFAULT_READ_AHEAD);
 
+        // record how long each test takes, for use in scheduling later runs
+        durationHistory = workDir.getDurationHistory();
+        durationRecorder = new DurationRecorder(durationHistory);
+
+        // if all the tests will be read ahead anyway, optionally reorder them
+        // so that the longest tests are started first
+        Iterator schedIter = raTestIter;
+        if (readAheadMode == ReadAheadIterator.FULL
+            && "longestFirst".equals(System.getProperty("javatest.schedule")))
+            schedIter = new LongestFirstIterator(raTestIter, durationHistory);
+        final Iterator runIter = schedIter;
+
         // autostopThreshold is currently defined by a system property,
         // but could come from parameters
         if (autostopThreshold > 0)
@@ -695,6 +753,7 @@ public class Harness
         notifier.startingTestRun(params);
 
         TestRunner r = testSuite.createTestRunner();
+        testRunner = r;
 
         r.setWorkDirectory(workDir);
         r.setBackupPolicy(backupPolicy);
@@ -702,19 +761,32 @@ public class Harness
         r.setExcludeList(excludeList);
 
         int concurrency = params.getConcurrency();
-        concurrency = Math.max(1, Math.min(concurrency,
-                                           Parameters.ConcurrencyParameters.MAX_CONCURRENCY));
+        concurrency = Math.max(1, Math.min(concurrency, r.getMaxConcurrency()));
         r.setConcurrency(concurrency);
 
         r.setNotifier(notifier);
 
+        ResultWriter resultWriter = null;
+        if (ResultWriter.isEnabled()) {
+            resultWriter = new ResultWriter(workDir);
+            workDir.setResultWriter(resultWriter);
+        }
+
+        RetryRecorder retryRecorder = null;
+        if (maxAttempts > 1) {
+            retryRecorder = new RetryRecorder();
+            addObserver(retryRecorder);
+        }
+
         try {
+            addObserver(durationRecorder);
+
             ok = r.runTests(new Iterator() {
                     public boolean hasNext() {
-                        return (stopping ? false : raTestIter.hasNext());
+                        return (stopping ? false : runIter.hasNext());
                     }
                     public Object next() {
-                        TestResult tr = (TestResult) (raTestIter.next());
+                        TestResult tr = (TestResult) (runIter.next());
                         try {
                             return tr.getDescription();
                         }
@@ -727,10 +799,63 @@ public class Harness
                         throw new UnsupportedOperationException();
                     }
                 });
+
+            // a test which cannot be run again keeps the failure of its
+            // earlier attempt, so the run cannot then be OK
+            boolean allRetried = true;
+            for (int attempt = 2; retryRecorder != null && attempt <= maxAttempts && !stopping; attempt++) {
+                Map failed = retryRecorder.takeFailed();
+                if (failed.isEmpty())
+                    break;
+                List retries = getRetryTests(failed, attempt);
+                if (retries.size() < failed.size())
+                    allRetried = false;
+                ok = retryTests(r, retries, failed) && allRetried;
+            }
         }
         catch (InterruptedException e) {
             // swallow interrupts, because we're just going to wind up the run
         }
+        finally {
+            if (retryRecorder != null)
+                removeObserver(retryRecorder);
+            if (r instanceof DefaultTestRunner)
+                ((DefaultTestRunner) r).setPreviousAttempts(null);
+            // make sure all the results have been written before
+            // reporting that testing has finished
+            if (resultWriter != null) {
+                workDir.setResultWriter(null);
+                resultWriter.close();
+            }
+            removeObserver(durationRecorder);
+            try {
+                durationHistory.save();
+            }
+            catch (IOException e) {
+                workDir.log(i18n, "harness.cantSaveDurations", e);
+            }
+
+            ResultLog resultLog = workDir.getResultLog();
+            if (resultLog != null) {
+                try {
+                    if (resultLog.needsCompact())
+                        resultLog.compact();
+                }
+                catch (IOException e) {
+                    workDir.log(i18n, "harness.cantCompactResultLog", e);
+                }
+                finally {
+                    // allow another harness, or a later run in this VM,
+                    // to write to the log, even if this run failed
+                    try {
+                        resultLog.unlock();
+                    }
+                    catch (IOException e) {
+                        workDir.log(i18n, "harness.cantUnlockResultLog", e);
+                    }
+                }
+            }
+        }
 
         finishTime = System.currentTimeMillis();
 
@@ -777,6 +902,62 @@ public class Harness
     }
 
 
+    /**
+     * Get the descriptions of the tests which did not pass in an earlier
+     * attempt, so that they can be run again. Tests whose description
+     * cannot be read are reported, and omitted.
+     * @param failed a map from the names of the tests to the results of
+     * their earlier attempt
+     * @param attempt the number of the attempt about to be made
+     * @return the descriptions of the tests to be run again
+     */
+    private List getRetryTests(Map failed, int attempt) {
+        workDir.log(i18n, "harness.retrying",
+                    new Object[] { new Integer(failed.size()), new Integer(attempt) });
+
+        List tests = new ArrayList();
+        for (Iterator iter = failed.values().iterator(); iter.hasNext(); ) {
+            TestResult tr = (TestResult) (iter.next());
+            try {
+                tests.add(tr.getDescription());
+                // the earlier attempt no longer counts towards the outcome
+                notifier.retrying(tr);
+            }
+            catch (TestResult.Fault e) {
+                workDir.log(i18n, "harness.trProb", new Object[] { tr.getWorkRelativePath(), e });
+            }
+        }
+        return tests;
+    }
+
+    /**
+     * Run again the tests which did not pass in an earlier attempt.
+     * @param r the runner to use to run the tests
+     * @param tests the descriptions of the tests to be run
+     * @param failed a map from the names of the tests which did not pass
+     * to the results of their earlier attempt
+     * @return true if and only if all the tests passed
+     */
+    private boolean retryTests(TestRunner r, List tests, Map failed)
+        throws InterruptedException
+    {
+        if (r instanceof DefaultTestRunner)
+            ((DefaultTestRunner) r).setPreviousAttempts(failed);
+
+        final Iterator testsIter = tests.iterator();
+        return r.runTests(new Iterator() {
+                public boolean hasNext() {
+                    return (stopping ? false : testsIter.hasNext());
+                }
+                public Object next() {
+                    return testsIter.next();
+                }
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+    }
+
     private void notifyError(I18NResourceBundle i18n, String key) {
         notifyLocalizedError(i18n.getString(key));
     }
@@ -796,6 +977,8 @@ public class Harness
     //----------member variables-----------------------------------------------------
 
     private BackupPolicy backupPolicy;
+    private int maxAttempts =
+        Math.max(1, Integer.getInteger("javatest.maxAttempts", 1).intValue());
     private int autostopThreshold;
     { Integer i = Integer.getInteger("javatest.autostop.threshold");
       autostopThreshold = (i == null ? 0 : i.intValue());
@@ -815,7 +998,10 @@ public class Harness
     private int numTestsDone;
     private TestEnvironment env;
     private TestResultTable resultTable;
+    private volatile TestRunner testRunner;
     private Notifier notifier = new Notifier();
+    private DurationHistory durationHistory;
+    private DurationRecorder durationRecorder;
 
     private long startTime = -1l;
     private long finishTime = -1l;
@@ -911,6 +1097,26 @@ public class Harness
                 stableObservers[i].error(msg);
         }
 
+        /**
+         * Withdraw the result of a test that is about to be run again
+         * from the counts of failed tests and tests with errors.
+         */
+        void retrying(TestResult tr) {
+            switch (tr.getStatus().getType()) {
+                case Status.FAILED:
+                    synchronized(this) {
+                        failCount--;
+                    }
+                    break;
+                case Status.ERROR:
+                    synchronized(this) {
+                        errCount--;
+                    }
+                    break;
+                default:
+            }   // switch
+        }
+
         synchronized int getErrorCount() {
             return errCount;
         }
@@ -924,6 +1130,92 @@ public class Harness
     }
 
 
+    /**
+     * Records the time taken by each test that runs to completion.
+     */
+    static class DurationRecorder implements Harness.Observer {
+        DurationRecorder(DurationHistory history) {
+            this.history = history;
+        }
+
+        public void startingTestRun(Parameters p) { }
+
+        public void startingTest(TestResult tr) {
+            synchronized (startTimes) {
+                startTimes.put(tr.getTestName(), new Long(System.currentTimeMillis()));
+            }
+        }
+
+        public void finishedTest(TestResult tr) {
+            Long start;
+            synchronized (startTimes) {
+                start = (Long) (startTimes.remove(tr.getTestName()));
+            }
+            if (start == null)
+                return;
+
+            // errors, such as timeouts or setup problems, are not
+            // representative of how long a test normally takes
+            switch (tr.getStatus().getType()) {
+            case Status.PASSED:
+            case Status.FAILED:
+                history.record(tr.getTestName(), System.currentTimeMillis() - start.longValue());
+                break;
+            default:
+            }
+        }
+
+        public void stoppingTestRun() { }
+
+        public void finishedTesting() { }
+
+        public void finishedTestRun(boolean allOK) { }
+
+        public void error(String msg) { }
+
+        private DurationHistory history;
+        private Map startTimes = new HashMap();
+    }
+
+    /**
+     * Records the tests that fail or have errors, so that they can be run again.
+     */
+    static class RetryRecorder implements Harness.Observer {
+        /**
+         * Get the tests that have failed or had errors since this method
+         * was last called.
+         * @return a map from the names of the tests to their results
+         */
+        synchronized Map takeFailed() {
+            Map m = failed;
+            failed = new LinkedHashMap();
+            return m;
+        }
+
+        public void startingTestRun(Parameters params) { }
+
+        public void startingTest(TestResult tr) { }
+
+        public synchronized void finishedTest(TestResult tr) {
+            switch (tr.getStatus().getType()) {
+            case Status.FAILED:
+            case Status.ERROR:
+                failed.put(tr.getTestName(), tr);
+                break;
+            }
+        }
+
+        public void stoppingTestRun() { }
+
+        public void finishedTesting() { }
+
+        public void finishedTestRun(boolean allOK) { }
+
+        public void error(String msg) { }
+
+        private Map failed = new LinkedHashMap();
+    }
+
     class Autostop implements Harness.Observer {
         Autostop(int threshold) {
             this.threshold = threshold;
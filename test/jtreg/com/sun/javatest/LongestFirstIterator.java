@@ -0,0 +1,118 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An iterator which returns the test results obtained from another
+ * iterator, ordered so that the tests expected to take the longest
+ * are returned first. Running long tests first means that the test
+ * run does not end with a few long tests running on their own while
+ * the other slots are idle.
+ * <p>
+ * The expected time for each test is obtained from a {@link DurationHistory}.
+ * Tests with no recorded history are assumed to take the average
+ * time of the tests that do have a history. Tests with the same expected
+ * time are returned in the order they were obtained from the source.
+ * <p>
+ * All the tests are read from the source iterator the first time
+ * this iterator is used.
+ */
+class LongestFirstIterator implements Iterator
+{
+    /**
+     * Create an iterator to reorder the tests from another iterator.
+     * @param source the iterator providing the tests, as TestResult objects
+     * @param history the history used to estimate how long each test will take
+     */
+    LongestFirstIterator(Iterator source, DurationHistory history) {
+        this.source = source;
+        this.history = history;
+    }
+
+    public synchronized boolean hasNext() {
+        init();
+        return (index < tests.size());
+    }
+
+    public synchronized Object next() {
+        init();
+        if (index >= tests.size())
+            throw new NoSuchElementException();
+        Object o = tests.get(index);
+        tests.set(index++, null);   // allow the entry to be GC-ed once used
+        return o;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void init() {
+        if (tests != null)
+            return;
+
+        List l = new ArrayList();
+        while (source.hasNext())
+            l.add(source.next());
+
+        final long defaultEstimate = history.getDefaultEstimate();
+        final long[] estimates = new long[l.size()];
+        final List items = new ArrayList(l.size());
+        for (int i = 0; i < l.size(); i++) {
+            TestResult tr = (TestResult) (l.get(i));
+            long e = history.getEstimate(tr.getTestName());
+            estimates[i] = (e == -1 ? defaultEstimate : e);
+            items.add(new Integer(i));
+        }
+
+        // Collections.sort is stable, so tests with equal estimates
+        // stay in their original order
+        Collections.sort(items, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long e1 = estimates[((Integer) o1).intValue()];
+                long e2 = estimates[((Integer) o2).intValue()];
+                return (e1 > e2 ? -1 : e1 < e2 ? 1 : 0);
+            }
+        });
+
+        tests = new ArrayList(items.size());
+        for (int i = 0; i < items.size(); i++)
+            tests.add(l.get(((Integer) items.get(i)).intValue()));
+    }
+
+    private Iterator source;
+    private DurationHistory history;
+    private List tests;
+    private int index;
+}
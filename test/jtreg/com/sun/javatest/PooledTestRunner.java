@@ -0,0 +1,382 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.javatest.util.VirtualThreads;
+
+/**
+ * A test runner which executes tests on a fixed pool of long-lived worker
+ * threads. Unlike {@link DefaultTestRunner}, worker threads are not replaced
+ * after each test, and workers do not contend on a shared monitor to obtain
+ * the next test: a single dispatcher (the thread calling {@link #runTests})
+ * reads from the test iterator and hands each test to the pool as soon as
+ * a slot becomes free.
+ * <p>
+ * When a test run is interrupted, the workers are interrupted and given
+ * a short while to complete; they are never forcibly stopped.
+ * <p>
+ * Tests may declare exclusive resources and a weight, using the
+ * <code>resources</code> and <code>weight</code> test description
+ * parameters. Tests which hold the same resource are never run at the
+ * same time, and the total weight of the tests that are running is kept
+ * within a budget, given by the system property
+ * <code>javatest.weightBudget</code>, which defaults to the concurrency.
+ * Tests which must wait are set aside while later tests are run.
+ * <p>
+ * If adaptive concurrency has been enabled, the number of tests run
+ * at once is adjusted during the test run according to the load
+ * on the system; see {@link ConcurrencyController}.
+ * <p>
+ * If virtual threads have been {@link VirtualThreads#isEnabled enabled},
+ * the workers are virtual threads. Since most tests spend their time
+ * waiting for a child process, this allows a much higher concurrency
+ * than would be reasonable with platform threads.
+ * <p>
+ * This runner is selected by setting the system property
+ * <code>javatest.testRunner</code> to <code>pooled</code>, or
+ * by enabling virtual threads or adaptive concurrency.
+ * @see TestSuite#createTestRunner
+ */
+public class PooledTestRunner extends DefaultTestRunner
+{
+    /**
+     * Statistics for an individual worker in the pool.
+     * The values are updated as the worker runs tests, and may be read
+     * at any time by other threads, such as Harness observers.
+     * @see #getWorkerStats
+     * @see Harness#getTestRunner
+     */
+    public static class WorkerStats
+    {
+        WorkerStats(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Get the name of the worker.
+         * @return the name of the worker
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the number of tests this worker has completed.
+         * @return the number of tests this worker has completed
+         */
+        public int getTestsRun() {
+            return testsRun.get();
+        }
+
+        /**
+         * Get the number of tests completed by this worker that did not pass.
+         * @return the number of tests completed by this worker that did not pass
+         */
+        public int getTestsNotPassed() {
+            return testsNotPassed.get();
+        }
+
+        /**
+         * Get the total time this worker has spent running tests.
+         * @return the total time, in milliseconds, that this worker has spent
+         * running tests
+         */
+        public long getBusyTime() {
+            return busyTime.get();
+        }
+
+        /**
+         * Get the test currently being run by this worker.
+         * @return the root-relative URL of the test currently being run by
+         * this worker, or null if the worker is idle
+         */
+        public String getCurrentTest() {
+            return currentTest;
+        }
+
+        public String toString() {
+            return (name + "[run=" + testsRun + ",notPassed=" + testsNotPassed
+                    + ",busy=" + busyTime + "ms]");
+        }
+
+        private final String name;
+        private final AtomicInteger testsRun = new AtomicInteger();
+        private final AtomicInteger testsNotPassed = new AtomicInteger();
+        private final AtomicLong busyTime = new AtomicLong();
+        private volatile String currentTest;
+    }
+
+    /**
+     * Get the statistics for the workers used by this runner.
+     * @return the statistics for the workers used by this runner;
+     * the array is empty if no tests have been started yet
+     */
+    public WorkerStats[] getWorkerStats() {
+        return (WorkerStats[]) workerStats.toArray(new WorkerStats[workerStats.size()]);
+    }
+
+    /**
+     * Check if this kind of test runner has been requested,
+     * either directly, or by requesting a feature it provides.
+     * @return true if this kind of test runner has been requested
+     */
+    static boolean isRequested() {
+        String s = System.getProperty("javatest.testRunner");
+        return ((s != null && s.equals("pooled"))
+                || VirtualThreads.isEnabled()
+                || ConcurrencyController.isEnabled());
+    }
+
+    protected int getMaxConcurrency() {
+        if (VirtualThreads.isEnabled())
+            return MAX_VIRTUAL_CONCURRENCY;
+        else
+            return super.getMaxConcurrency();
+    }
+
+    /**
+     * Get the number of tests that may currently be run at once.
+     * This is normally the concurrency for the test run, but may be
+     * lower if adaptive concurrency has been enabled.
+     * @return the number of tests that may currently be run at once,
+     * or 0 if no tests are being run
+     * @see ConcurrencyController
+     */
+    public int getActiveConcurrency() {
+        SlotAllocator s = activeSlots;
+        return (s == null ? 0 : s.getMaxTests());
+    }
+
+    protected void notifyFinishedTest(TestResult tr) {
+        ConcurrencyController c = controller;
+        if (c != null)
+            c.finishedTest(tr);
+        super.notifyFinishedTest(tr);
+    }
+
+    public boolean runTests(Iterator testIter)
+        throws InterruptedException
+    {
+        int concurrency = getConcurrency();
+        SlotAllocator slots = SlotAllocator.create(concurrency);
+        ExecutorService pool = createPool(concurrency);
+        allPassed = true;
+        stopping = false;
+        sourceExhausted = false;
+        activeSlots = slots;
+
+        if (ConcurrencyController.isEnabled()) {
+            controller = new ConcurrencyController(slots, concurrency);
+            controller.start();
+        }
+
+        try {
+            List deferred = new LinkedList();
+            TestDescription td;
+            while (!stopping && (td = nextTest(testIter, slots, deferred)) != null)
+                pool.execute(new Task(td, slots));
+
+            pool.shutdown();
+            while (!pool.awaitTermination(POLL_INTERVAL, TimeUnit.MILLISECONDS))
+                ;
+        }
+        catch (InterruptedException ex) {
+            stopping = true;    // stop workers from starting any new tests
+
+            // interrupt the workers, and give them a short while
+            // (a couple of seconds) to clean up
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+            }
+
+            // rethrow the original exception so the caller knows what's happened
+            throw ex;
+        }
+        finally {
+            if (controller != null) {
+                controller.stop();
+                controller = null;
+            }
+            pool.shutdownNow();
+        }
+
+        return allPassed;
+    }
+
+    /**
+     * Get the next test that can be started, waiting if necessary until
+     * a slot is available for it. Tests which cannot be started yet because
+     * of the resources they require or their weight are deferred, and later
+     * tests are considered instead, so that the other slots are kept busy.
+     * A slot is allocated to the test that is returned.
+     * @return the next test to be started, or null if there are no more tests
+     */
+    private TestDescription nextTest(Iterator testIter, SlotAllocator slots, List deferred)
+        throws InterruptedException
+    {
+        while (true) {
+            synchronized (slots) {
+                for (Iterator iter = deferred.iterator(); iter.hasNext(); ) {
+                    TestDescription td = (TestDescription) (iter.next());
+                    if (slots.tryAllocate(td)) {
+                        iter.remove();
+                        return td;
+                    }
+                }
+
+                if (sourceExhausted && deferred.isEmpty())
+                    return null;
+
+                // wait for a test to complete if there is nothing else we can do
+                if (sourceExhausted || slots.isFull() || deferred.size() >= MAX_DEFERRED_TESTS) {
+                    slots.wait();
+                    continue;
+                }
+            }
+
+            // read the next test without holding the lock, since the
+            // iterator may block waiting for more tests to be found
+            if (!testIter.hasNext()) {
+                sourceExhausted = true;
+                continue;
+            }
+
+            TestDescription td = (TestDescription) (testIter.next());
+            synchronized (slots) {
+                if (slots.tryAllocate(td))
+                    return td;
+                deferred.add(td);
+            }
+        }
+    }
+
+    /**
+     * Create the pool of workers used to run tests.
+     * @param concurrency the maximum number of tests to be run at once
+     * @return the pool of workers used to run tests
+     */
+    ExecutorService createPool(int concurrency) {
+        return new ThreadPoolExecutor(concurrency, concurrency,
+                                      0L, TimeUnit.MILLISECONDS,
+                                      new LinkedBlockingQueue<Runnable>(),
+                                      new WorkerFactory());
+    }
+
+    /**
+     * Record a new worker, and return a runnable that arranges for the
+     * worker's statistics to be available to the tests it runs.
+     */
+    Runnable newWorker(String name, final Runnable r) {
+        final WorkerStats ws = new WorkerStats(name);
+        workerStats.add(ws);
+        return new Runnable() {
+            public void run() {
+                currentStats.set(ws);
+                r.run();
+            }
+        };
+    }
+
+    private class WorkerFactory implements ThreadFactory {
+        public Thread newThread(Runnable r) {
+            String name = "PooledTestRunner:Worker-" + count.getAndIncrement();
+            Thread t = VirtualThreads.newThread(name, newWorker(name, r));
+            // workers are never forcibly stopped, so don't let a hung test
+            // prevent the VM from exiting; (virtual threads are always daemon
+            // threads, and ignore the priority)
+            t.setDaemon(true);
+            t.setPriority(prio);
+            return t;
+        }
+
+        private final AtomicInteger count = new AtomicInteger();
+        private final int prio =
+            Math.max(Thread.MIN_PRIORITY, Thread.currentThread().getPriority() - 1);
+    }
+
+    private class Task implements Runnable {
+        Task(TestDescription td, SlotAllocator slots) {
+            this.td = td;
+            this.slots = slots;
+        }
+
+        public void run() {
+            if (stopping) {
+                slots.release(td);
+                return;
+            }
+
+            WorkerStats ws = (WorkerStats) (currentStats.get());
+            long start = System.currentTimeMillis();
+            boolean passed = false;
+            try {
+                ws.currentTest = td.getRootRelativeURL();
+                passed = runTest(td);
+                if (!passed)
+                    allPassed = false;
+            }
+            finally {
+                ws.currentTest = null;
+                ws.testsRun.incrementAndGet();
+                if (!passed)
+                    ws.testsNotPassed.incrementAndGet();
+                ws.busyTime.addAndGet(System.currentTimeMillis() - start);
+                slots.release(td);
+            }
+        }
+
+        private final TestDescription td;
+        private final SlotAllocator slots;
+    }
+
+    private final List workerStats = new CopyOnWriteArrayList();
+    private final ThreadLocal currentStats = new ThreadLocal();
+    private volatile boolean allPassed;
+    private volatile boolean stopping;
+    private boolean sourceExhausted;
+    private volatile SlotAllocator activeSlots;
+    private volatile ConcurrencyController controller;
+
+    private static final long POLL_INTERVAL = 1000;
+    private static final long STOP_TIMEOUT = 2000;
+    private static final int MAX_DEFERRED_TESTS = 100;
+}
@@ -0,0 +1,706 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sun.javatest.util.I18NResourceBundle;
+
+/**
+ * A log-structured store for the results of the tests in a work directory,
+ * used instead of writing a separate .jtr file for each test.
+ * The results are appended to a series of segment files in the
+ * <code>jtData/resultLog</code> directory, and an index giving the location
+ * of the latest results for each test is built in memory when the log
+ * is opened. When a large part of the log has been superseded by newer
+ * results, the log can be compacted, by copying the current results into
+ * new segments and deleting the old ones. The results can be exported as
+ * classic .jtr files at any time, with {@link #export}, or from the
+ * command line, with {@link #main}.
+ * <p>
+ * Results are stored in a result log if the system property
+ * <code>javatest.resultLog</code> is set to <code>true</code> when a
+ * work directory is first used, or if the work directory already
+ * contains a result log. The contents of the log take precedence over
+ * any .jtr files in the work directory.
+ * <p>
+ * A result log may only be written by one harness at a time. The log is
+ * locked when it is first written, and remains locked until it is
+ * {@link #unlock unlocked} or closed; an attempt to write a log that is
+ * locked by another harness fails. Since another harness may have written
+ * to the log in the meantime, the index is rebuilt whenever the lock is
+ * taken. A harness which only reads the log does not see results written
+ * by another harness after the log was opened.
+ * @see WorkDirectory#getResultLog
+ */
+public class ResultLog
+{
+    /**
+     * Check if results should be stored in a result log, for a work directory.
+     * @param root the root directory of the work directory
+     * @return true if the work directory contains a result log, or if the
+     * use of result logs has been requested
+     */
+    static boolean isEnabled(File root) {
+        return (Boolean.getBoolean("javatest.resultLog") || exists(root));
+    }
+
+    /**
+     * Check if a work directory contains a result log.
+     * @param root the root directory of the work directory
+     * @return true if the work directory contains a result log
+     */
+    public static boolean exists(File root) {
+        return getDirectory(root).isDirectory();
+    }
+
+    /**
+     * Open the result log for a work directory, creating it if necessary.
+     * @param root the root directory of the work directory
+     * @throws IOException if there is a problem reading the log
+     */
+    public ResultLog(File root) throws IOException {
+        rootPath = root.getPath();
+        dir = getDirectory(root);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException(i18n.getString("rlog.cantCreateDir", dir));
+
+        load();
+    }
+
+    /**
+     * Check whether the log contains the results for a test.
+     * @param path the work-relative path of the results for the test
+     * @return true if the log contains the results for the test
+     */
+    public synchronized boolean contains(String path) {
+        return index.containsKey(path);
+    }
+
+    /**
+     * Check whether the log contains the results for a test.
+     * @param f the results file for the test in the work directory
+     * @return true if the log contains the results for the test
+     */
+    synchronized boolean contains(File f) {
+        String path = getPath(f);
+        return (path != null && index.containsKey(path));
+    }
+
+    /**
+     * Get the results for a test, in the form of the contents of a .jtr file.
+     * @param path the work-relative path of the results for the test
+     * @return the results for the test, or null if the log does not
+     * contain any results for the test
+     * @throws IOException if there is a problem reading the results
+     */
+    public synchronized String get(String path) throws IOException {
+        Location l = (Location) (index.get(path));
+        return (l == null ? null : new String(read(l), ENCODING));
+    }
+
+    /**
+     * Get the results for a test, in the form of the contents of a .jtr file.
+     * @param f the results file for the test in the work directory
+     * @return the results for the test, or null if the log does not
+     * contain any results for the test
+     * @throws IOException if there is a problem reading the results
+     */
+    synchronized String get(File f) throws IOException {
+        String path = getPath(f);
+        return (path == null ? null : get(path));
+    }
+
+    /**
+     * Store the results for a test, superseding any earlier results
+     * for the test.
+     * @param path the work-relative path of the results for the test
+     * @param results the results for the test, in the form of the
+     * contents of a .jtr file
+     * @throws IOException if there is a problem writing the results
+     */
+    public synchronized void put(String path, String results) throws IOException {
+        lock();
+        append(path, results.getBytes(ENCODING));
+    }
+
+    /**
+     * Store the results for a test, superseding any earlier results
+     * for the test.
+     * @param f the results file for the test in the work directory
+     * @param results the results for the test, in the form of the
+     * contents of a .jtr file
+     * @throws IOException if there is a problem writing the results
+     */
+    synchronized void put(File f, String results) throws IOException {
+        String path = getPath(f);
+        if (path == null)
+            throw new IllegalArgumentException(f.getPath());
+        put(path, results);
+    }
+
+    /**
+     * Remove the results for all tests with a given path prefix.
+     * @param prefix the work-relative path of a test, or of a directory
+     * containing tests; an empty string removes all the results in the log
+     * @return the work-relative paths of the results that were removed
+     * @throws IOException if there is a problem updating the log
+     */
+    public synchronized String[] remove(String prefix) throws IOException {
+        lock();
+        List v = new ArrayList();
+        for (Iterator iter = index.keySet().iterator(); iter.hasNext(); ) {
+            String p = (String) (iter.next());
+            if (prefix.length() == 0 || p.equals(prefix)
+                || (p.startsWith(prefix) && p.charAt(prefix.length()) == '/'))
+                v.add(p);
+        }
+
+        String[] paths = (String[]) (v.toArray(new String[v.size()]));
+        Arrays.sort(paths);
+        for (int i = 0; i < paths.length; i++)
+            append(paths[i], null);
+        return paths;
+    }
+
+    /**
+     * Get the work-relative paths of all the results in the log.
+     * @return the work-relative paths of all the results in the log,
+     * in alphabetical order
+     */
+    public synchronized String[] getPaths() {
+        String[] paths = (String[]) (index.keySet().toArray(new String[index.size()]));
+        Arrays.sort(paths);
+        return paths;
+    }
+
+    /**
+     * Force any results that have been written to the log to be
+     * written to the storage device.
+     * @throws IOException if there is a problem synchronizing the log
+     */
+    public synchronized void sync() throws IOException {
+        if (active != null)
+            active.getFD().sync();
+    }
+
+    /**
+     * Check if the log should be compacted, because a large part of it
+     * contains results which have been superseded. The threshold is given
+     * by the system property <code>javatest.resultLog.compactPercent</code>,
+     * which defaults to 50.
+     * @return true if the log should be compacted
+     */
+    public synchronized boolean needsCompact() {
+        long total = liveBytes + deadBytes;
+        return (deadBytes >= MIN_COMPACT_SIZE && deadBytes * 100 / total >= compactPercent);
+    }
+
+    /**
+     * Compact the log, by copying the current results into new segments,
+     * and deleting the old segments.
+     * @throws IOException if there is a problem compacting the log
+     */
+    public synchronized void compact() throws IOException {
+        lock();
+        Integer[] old = (Integer[]) (segments.toArray(new Integer[segments.size()]));
+
+        // if the harness stops before the old segments are deleted,
+        // the new segments will supersede them when the log is next opened
+        roll();
+        String[] paths = getPaths();
+        for (int i = 0; i < paths.length; i++)
+            append(paths[i], read((Location) (index.get(paths[i]))));
+
+        // delete the old segments, oldest first, so that any results which
+        // have been removed stay removed if this is interrupted
+        for (int i = 0; i < old.length; i++) {
+            int seg = old[i].intValue();
+            RandomAccessFile raf = (RandomAccessFile) (readers.remove(old[i]));
+            if (raf != null)
+                raf.close();
+            getSegmentFile(seg).delete();
+            segments.remove(old[i]);
+        }
+
+        deadBytes = 0;
+    }
+
+    /**
+     * Write the results in the log as classic .jtr files.
+     * @param dest the directory in which to write the files, such as the
+     * root directory of the work directory
+     * @return the number of files written
+     * @throws IOException if there is a problem writing the files
+     */
+    public synchronized int export(File dest) throws IOException {
+        String[] paths = getPaths();
+        for (int i = 0; i < paths.length; i++) {
+            File f = new File(dest, paths[i].replace('/', File.separatorChar));
+            File d = f.getParentFile();
+            if (d != null && !d.isDirectory() && !d.mkdirs())
+                throw new IOException(i18n.getString("rlog.cantCreateDir", d));
+
+            // write with the default encoding, as for any other .jtr file
+            Writer out = new FileWriter(f);
+            try {
+                out.write(get(paths[i]));
+            }
+            finally {
+                out.close();
+            }
+        }
+        return paths.length;
+    }
+
+    /**
+     * Close the log.
+     * @throws IOException if there is a problem closing the log
+     */
+    public synchronized void close() throws IOException {
+        closeFiles();
+        unlock();
+    }
+
+    /**
+     * Release the lock on the log, if it is held, so that the log can be
+     * written by another harness. The lock is taken again, and the index
+     * rebuilt, if this log is written again.
+     * @throws IOException if there is a problem releasing the lock
+     */
+    public synchronized void unlock() throws IOException {
+        if (lock == null)
+            return;
+
+        if (active != null) {
+            active.close();
+            active = null;
+        }
+
+        FileChannel ch = lock.channel();
+        try {
+            lock.release();
+        }
+        finally {
+            lock = null;
+            ch.close();
+            synchronized (lockedDirs) {
+                lockedDirs.remove(lockKey);
+            }
+        }
+    }
+
+    /**
+     * Command line entry point, to export the results in the result log
+     * for a work directory as classic .jtr files, or to compact the log.
+     * <pre>
+     * java com.sun.javatest.ResultLog [-compact] [-export <i>dir</i>] <i>work-directory</i>
+     * </pre>
+     * If neither option is given, the results are exported into the work
+     * directory itself.
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        boolean compact = false;
+        File exportDir = null;
+        File root = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-compact"))
+                compact = true;
+            else if (args[i].equals("-export") && i + 1 < args.length)
+                exportDir = new File(args[++i]);
+            else if (!args[i].startsWith("-") && root == null)
+                root = new File(args[i]);
+            else {
+                root = null;
+                break;
+            }
+        }
+
+        if (root == null) {
+            System.err.println(i18n.getString("rlog.usage"));
+            System.exit(2);
+        }
+
+        if (!getDirectory(root).isDirectory()) {
+            System.err.println(i18n.getString("rlog.noLog", root));
+            System.exit(1);
+        }
+
+        if (!compact && exportDir == null)
+            exportDir = root;
+
+        try {
+            ResultLog log = new ResultLog(root);
+            try {
+                if (compact) {
+                    log.compact();
+                    System.out.println(i18n.getString("rlog.compacted", root));
+                }
+                if (exportDir != null) {
+                    int n = log.export(exportDir);
+                    System.out.println(i18n.getString("rlog.exported",
+                                                      new Object[] { new Integer(n), exportDir }));
+                }
+            }
+            finally {
+                log.close();
+            }
+        }
+        catch (IOException e) {
+            System.err.println(i18n.getString("rlog.error", e));
+            System.exit(3);
+        }
+    }
+
+    //-------------------------------------------------------------------------------------
+
+    /**
+     * Read the segments in the log directory, and build the index.
+     */
+    private void load() throws IOException {
+        String[] names = dir.list();
+        if (names == null)
+            throw new IOException(i18n.getString("rlog.cantRead", dir));
+
+        for (int i = 0; i < names.length; i++) {
+            String n = names[i];
+            if (n.startsWith(SEGMENT_PREFIX) && n.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    segments.add(Integer.valueOf(n.substring(SEGMENT_PREFIX.length(),
+                                                             n.length() - SEGMENT_SUFFIX.length())));
+                }
+                catch (NumberFormatException e) {
+                    // not a segment file; ignore it
+                }
+            }
+        }
+        Collections.sort(segments);
+
+        // later segments supersede earlier ones
+        for (Iterator iter = segments.iterator(); iter.hasNext(); )
+            scan(((Integer) (iter.next())).intValue());
+    }
+
+    /**
+     * Lock the log, if it is not already locked by this object, so that it
+     * can be written, and rebuild the index, since another harness may have
+     * written to the log since it was read.
+     * @throws IOException if the log is locked by another harness
+     */
+    private void lock() throws IOException {
+        if (lock != null)
+            return;
+
+        // file locks are held by the whole VM, and closing any channel for
+        // the lock file may release the lock, so check first whether the
+        // log is locked by another object in this VM
+        lockKey = dir.getCanonicalPath();
+        synchronized (lockedDirs) {
+            if (!lockedDirs.add(lockKey))
+                throw new IOException(i18n.getString("rlog.locked", dir));
+        }
+
+        FileLock l = null;
+        try {
+            FileChannel ch = new RandomAccessFile(new File(dir, LOCK_NAME), "rw").getChannel();
+            try {
+                l = ch.tryLock();
+            }
+            catch (OverlappingFileLockException e) {
+                // should not happen, given the check above
+            }
+            finally {
+                if (l == null)
+                    ch.close();
+            }
+        }
+        finally {
+            if (l == null) {
+                synchronized (lockedDirs) {
+                    lockedDirs.remove(lockKey);
+                }
+            }
+        }
+        if (l == null)
+            throw new IOException(i18n.getString("rlog.locked", dir));
+        lock = l;
+
+        closeFiles();
+        segments.clear();
+        index.clear();
+        liveBytes = 0;
+        deadBytes = 0;
+        load();
+
+        if (segments.size() == 0)
+            roll();
+        else {
+            int last = ((Integer) (segments.get(segments.size() - 1))).intValue();
+            active = new RandomAccessFile(getSegmentFile(last), "rw");
+            activeSegment = last;
+            activeLength = active.length();
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        for (Iterator iter = readers.values().iterator(); iter.hasNext(); )
+            ((RandomAccessFile) (iter.next())).close();
+        readers.clear();
+        if (active != null) {
+            active.close();
+            active = null;
+        }
+    }
+
+    /**
+     * Read the headers of the records in a segment, and update the index.
+     * A partial record at the end of the segment, left by an interrupted
+     * write, is discarded.
+     */
+    private void scan(int seg) throws IOException {
+        File f = getSegmentFile(seg);
+        long length = f.length();
+        long pos = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            while (pos < length) {
+                if (in.readInt() != RECORD_MAGIC)
+                    break;
+                byte[] p = new byte[in.readInt()];
+                in.readFully(p);
+                int n = in.readInt();
+                long dataPos = pos + RECORD_OVERHEAD + p.length;
+                if (n > 0) {
+                    if (dataPos + n > length)
+                        break;
+                    skipFully(in, n);
+                }
+                update(new String(p, ENCODING), (n < 0 ? null : new Location(seg, dataPos, n)),
+                       RECORD_OVERHEAD + p.length + Math.max(n, 0));
+                pos = dataPos + Math.max(n, 0);
+            }
+        }
+        catch (EOFException e) {
+            // partial record at end of segment
+        }
+        finally {
+            in.close();
+        }
+
+        // another harness may be part way through writing a record,
+        // so only discard a partial record if the log is locked
+        if (pos < length && lock != null) {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                raf.setLength(pos);
+            }
+            finally {
+                raf.close();
+            }
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes(n);
+            if (skipped <= 0)
+                throw new EOFException();
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Append a record to the active segment, and update the index.
+     * @param data the results, or null to remove the results for the path
+     */
+    private void append(String path, byte[] data) throws IOException {
+        if (activeLength >= segmentSize)
+            roll();
+
+        byte[] p = path.getBytes(ENCODING);
+        int size = RECORD_OVERHEAD + p.length + (data == null ? 0 : data.length);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(RECORD_MAGIC);
+        out.writeInt(p.length);
+        out.write(p);
+        out.writeInt(data == null ? -1 : data.length);
+        if (data != null)
+            out.write(data);
+
+        // write the record in a single operation
+        active.seek(activeLength);
+        active.write(bytes.toByteArray());
+
+        long dataPos = activeLength + RECORD_OVERHEAD + p.length;
+        activeLength += size;
+        update(path, (data == null ? null : new Location(activeSegment, dataPos, data.length)), size);
+    }
+
+    private void update(String path, Location l, int size) {
+        Location prev = (Location) (l == null ? index.remove(path) : index.put(path, l));
+        if (prev != null) {
+            liveBytes -= prev.size;
+            deadBytes += prev.size;
+        }
+        if (l == null)
+            deadBytes += size;
+        else {
+            l.size = size;
+            liveBytes += size;
+        }
+    }
+
+    /**
+     * Start a new segment.
+     */
+    private void roll() throws IOException {
+        int seg = (segments.size() == 0 ? 1
+                   : ((Integer) (segments.get(segments.size() - 1))).intValue() + 1);
+        if (active != null)
+            active.close();
+        active = new RandomAccessFile(getSegmentFile(seg), "rw");
+        active.setLength(0);
+        activeSegment = seg;
+        activeLength = 0;
+        segments.add(new Integer(seg));
+    }
+
+    private byte[] read(Location l) throws IOException {
+        RandomAccessFile raf = getSegment(l.segment);
+        byte[] data = new byte[l.length];
+        raf.seek(l.offset);
+        raf.readFully(data);
+        return data;
+    }
+
+    private RandomAccessFile getSegment(int seg) throws IOException {
+        if (active != null && seg == activeSegment)
+            return active;
+
+        Integer key = new Integer(seg);
+        RandomAccessFile raf = (RandomAccessFile) (readers.get(key));
+        if (raf == null) {
+            raf = new RandomAccessFile(getSegmentFile(seg), "r");
+            readers.put(key, raf);
+        }
+        return raf;
+    }
+
+    private File getSegmentFile(int seg) {
+        String n = String.valueOf(seg);
+        while (n.length() < 6)
+            n = "0" + n;
+        return new File(dir, SEGMENT_PREFIX + n + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Get the work-relative path for a file in the work directory,
+     * or null if the file is not in the work directory.
+     */
+    private String getPath(File f) {
+        String p = f.getPath();
+        if (p.length() > rootPath.length() + 1
+            && p.startsWith(rootPath)
+            && p.charAt(rootPath.length()) == File.separatorChar)
+            return p.substring(rootPath.length() + 1).replace(File.separatorChar, '/');
+        else
+            return null;
+    }
+
+    private static File getDirectory(File root) {
+        return new File(new File(root, JTDATA), DIRNAME);
+    }
+
+    private static class Location {
+        Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        final int segment;
+        final long offset;
+        final int length;
+        int size;       // size of the entire record
+    }
+
+    private final String rootPath;
+    private final File dir;
+    private final List segments = new ArrayList();     // segment numbers, in order
+    private final Map index = new HashMap();           // path -> Location
+    private final Map readers = new HashMap();         // segment number -> RandomAccessFile
+    private RandomAccessFile active;                   // null unless the log is locked
+    private int activeSegment;
+    private long activeLength;
+    private long liveBytes;
+    private long deadBytes;
+    private FileLock lock;                             // held while the log may be written
+    private String lockKey;                            // entry in lockedDirs while locked
+
+    // the directories of the logs locked by this VM
+    private static final Set lockedDirs = new HashSet();
+
+    private final long segmentSize =
+        Integer.getInteger("javatest.resultLog.segmentSize", 16).intValue() * 1024L * 1024L;
+    private final int compactPercent =
+        Integer.getInteger("javatest.resultLog.compactPercent", 50).intValue();
+
+    private static final String JTDATA = "jtData";
+    private static final String DIRNAME = "resultLog";
+    private static final String SEGMENT_PREFIX = "segment";
+    private static final String SEGMENT_SUFFIX = ".jtl";
+    private static final String LOCK_NAME = "lock";
+    private static final String ENCODING = "UTF-8";
+    private static final int RECORD_MAGIC = 0x4A54524C;  // "JTRL"
+    private static final int RECORD_OVERHEAD = 12;       // magic, path length, data length
+    private static final long MIN_COMPACT_SIZE = 1024 * 1024;
+    private static I18NResourceBundle i18n = I18NResourceBundle.getBundleForClass(ResultLog.class);
+}
@@ -0,0 +1,211 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Limits the number of test results whose full contents are held in memory.
+ * Test results which have been written to, or reloaded from, a results file
+ * are recorded here, in order of most recent use. When there are more than
+ * a given number of such results, or their estimated size exceeds a given
+ * budget, the least recently used results are
+ * {@link TestResult#shrink shrunk}, leaving just their name, status and end
+ * time in memory; the rest of the data is reloaded from the results file
+ * if it is needed again.
+ * <p>
+ * Results are shrunk on a separate daemon thread, so that a result is never
+ * shrunk by a thread which holds the lock on another result.
+ * Results are only weakly referenced here, and so may still be garbage
+ * collected when no longer required.
+ * <p>
+ * The limits are given by the following system properties:
+ * <dl>
+ * <dt><code>javatest.numCachedResults</code>
+ * <dd>the maximum number of results to keep in memory (default 128)
+ * <dt><code>javatest.cachedResultsSize</code>
+ * <dd>the maximum estimated size, in megabytes, of the results to keep
+ * in memory (default 0, meaning there is no limit on the size)
+ * </dl>
+ */
+class ResultResidency
+{
+    /**
+     * Create an object to limit the results held in memory.
+     * @param maxResults the maximum number of results to hold in memory
+     * @param maxSize the maximum estimated size, in bytes, of the results
+     * to hold in memory, or 0 if there is no limit on the size
+     */
+    ResultResidency(int maxResults, long maxSize) {
+        this.maxResults = Math.max(1, maxResults);
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+    /**
+     * Record that a test result has been loaded into memory, or used,
+     * making it the most recently used result. Any results which are then
+     * in excess of the limits are shrunk.
+     * @param tr the test result
+     * @param size the estimated size, in bytes, of the data for the result
+     * which would be discarded if it were shrunk
+     */
+    synchronized void touch(TestResult tr, long size) {
+        expungeStaleEntries();
+
+        Entry e = new Entry(tr, queue);
+        Entry prev = (Entry) (entries.get(e));   // moves any existing entry to the end
+        if (prev == null) {
+            e.size = size;
+            entries.put(e, e);
+            totalSize += size;
+        }
+        else {
+            totalSize += size - prev.size;
+            prev.size = size;
+        }
+
+        // never evict the result that has just been used
+        while (entries.size() > maxResults
+               || (maxSize > 0 && totalSize > maxSize && entries.size() > 1)) {
+            Iterator iter = entries.values().iterator();
+            Entry eldest = (Entry) (iter.next());
+            iter.remove();
+            totalSize -= eldest.size;
+            victims.addLast(eldest);
+        }
+
+        if (!victims.isEmpty()) {
+            if (sweeper == null)
+                startSweeper();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Get the number of results currently recorded as being held in memory.
+     * @return the number of results currently recorded as being held in memory
+     */
+    synchronized int getResidentCount() {
+        expungeStaleEntries();
+        return entries.size();
+    }
+
+    /**
+     * Get the estimated size of the results currently recorded as being held
+     * in memory.
+     * @return the estimated size, in bytes, of the results currently recorded
+     * as being held in memory
+     */
+    synchronized long getResidentSize() {
+        expungeStaleEntries();
+        return totalSize;
+    }
+
+    private void expungeStaleEntries() {
+        Entry e;
+        while ((e = (Entry) (queue.poll())) != null) {
+            if (entries.remove(e) != null)
+                totalSize -= e.size;
+        }
+    }
+
+    private void startSweeper() {
+        sweeper = new Thread("ResultResidency") {
+            public void run() {
+                try {
+                    sweep();
+                }
+                catch (InterruptedException e) {
+                    // stop
+                }
+            }
+        };
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    private void sweep() throws InterruptedException {
+        while (true) {
+            Entry e;
+            synchronized (this) {
+                while (victims.isEmpty())
+                    wait();
+                e = (Entry) (victims.removeFirst());
+
+                // ignore results that have been used again since being chosen
+                if (entries.containsKey(e))
+                    continue;
+            }
+
+            // shrink the result without holding the lock, since
+            // the result may be waiting on the lock to touch itself
+            TestResult tr = (TestResult) (e.get());
+            if (tr != null && !tr.isMutable())
+                tr.shrink();
+        }
+    }
+
+    /**
+     * A weak reference to a test result, which compares equal to any other
+     * entry for the same result.
+     */
+    private static class Entry extends WeakReference {
+        Entry(TestResult tr, ReferenceQueue q) {
+            super(tr, q);
+            hash = System.identityHashCode(tr);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Entry))
+                return false;
+            Object r = get();
+            return (r != null && r == ((Entry) o).get());
+        }
+
+        private final int hash;
+        long size;
+    }
+
+    private final int maxResults;
+    private final long maxSize;
+    private final Map entries = new LinkedHashMap(16, 0.75f, true);
+    private final LinkedList victims = new LinkedList();
+    private final ReferenceQueue queue = new ReferenceQueue();
+    private long totalSize;
+    private Thread sweeper;
+}
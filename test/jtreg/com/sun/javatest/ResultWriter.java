@@ -0,0 +1,234 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.sun.javatest.util.BackupPolicy;
+import com.sun.javatest.util.I18NResourceBundle;
+
+/**
+ * Writes the results of completed tests on a dedicated thread, so that
+ * the threads running tests do not wait for the results to be written.
+ * Results are taken from a bounded queue in batches; when the queue is
+ * full, the threads submitting results wait until there is room, so that
+ * a slow disk cannot cause an unbounded number of results to be held in
+ * memory. When the results are being stored in a {@link ResultLog},
+ * the log is synchronized with the disk once per batch.
+ * <p>
+ * The writer is used by the harness during a test run if the system
+ * property <code>javatest.asyncResults</code> is set to <code>true</code>.
+ * The size of the queue is given by the system property
+ * <code>javatest.asyncResults.queueSize</code>, which defaults to 64.
+ * All queued results are written before the harness reports that
+ * testing has finished, and when the VM shuts down.
+ * @see WorkDirectory#getResultWriter
+ */
+class ResultWriter
+{
+    /**
+     * Check if asynchronous writing of results has been requested.
+     * @return true if asynchronous writing of results has been requested
+     */
+    static boolean isEnabled() {
+        return Boolean.getBoolean("javatest.asyncResults");
+    }
+
+    /**
+     * Create and start a writer for the results of tests in a work directory.
+     * @param workDir the work directory in which to write the results
+     */
+    ResultWriter(WorkDirectory workDir) {
+        this.workDir = workDir;
+        int size = Integer.getInteger("javatest.asyncResults.queueSize", DEFAULT_QUEUE_SIZE).intValue();
+        queue = new ArrayBlockingQueue(Math.max(1, size));
+
+        worker = new Thread("ResultWriter[" + workDir.getRoot() + "]") {
+            public void run() {
+                writeUntilClosed();
+            }
+        };
+        worker.setDaemon(true);
+        worker.start();
+
+        shutdownHandler = new Thread() {
+            public void run() {
+                flush();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHandler);
+    }
+
+    /**
+     * Queue the results of a test to be written, waiting if necessary
+     * until there is room in the queue.
+     * @param tr the results to be written; the results must be immutable
+     * @param backupPolicy the policy to use when writing the results
+     * @return false if the writer has been closed, in which case the
+     * results have not been queued, and true otherwise
+     * @throws InterruptedException if the thread is interrupted while
+     * waiting for room in the queue
+     */
+    boolean write(TestResult tr, BackupPolicy backupPolicy) throws InterruptedException {
+        if (tr.isMutable())
+            throw new IllegalStateException();
+
+        // requests are numbered in the order they are put in the queue,
+        // so that a flush knows which requests were submitted before it
+        synchronized (putLock) {
+            synchronized (this) {
+                if (closed)
+                    return false;
+                submitted++;
+            }
+
+            try {
+                queue.put(new Request(tr, backupPolicy));
+            }
+            catch (InterruptedException e) {
+                // withdraw the number; no later request has been given one
+                synchronized (this) {
+                    submitted--;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Wait until all the results that were queued before this method was
+     * called have been written. Results queued while waiting are not
+     * waited for.
+     */
+    synchronized void flush() {
+        long target = submitted;
+        try {
+            while (written < Math.min(target, submitted) && worker.isAlive())
+                wait(FLUSH_POLL_INTERVAL);
+        }
+        catch (InterruptedException e) {
+            // give up waiting
+        }
+    }
+
+    /**
+     * Write all the results that have been queued, and stop the writer.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        worker.interrupt();
+
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHandler);
+        }
+        catch (IllegalStateException e) {
+            // it's OK if shutdown is in progress now
+        }
+    }
+
+    private void writeUntilClosed() {
+        List batch = new ArrayList();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                writeBatch(batch);
+                done(batch.size());
+                batch.clear();
+            }
+        }
+        catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    private void writeBatch(List batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            Request r = (Request) (batch.get(i));
+            try {
+                r.testResult.writeResults(workDir, r.backupPolicy);
+            }
+            catch (IOException e) {
+                workDir.log(i18n, "rw.cantWrite",
+                            new Object[] { r.testResult.getTestName(), e });
+            }
+            catch (RuntimeException e) {
+                workDir.log(i18n, "rw.cantWrite",
+                            new Object[] { r.testResult.getTestName(), e });
+            }
+        }
+
+        ResultLog log = workDir.getResultLog();
+        if (log != null) {
+            try {
+                log.sync();
+            }
+            catch (IOException e) {
+                workDir.log(i18n, "rw.cantSync", e);
+            }
+        }
+    }
+
+    private synchronized void done(int n) {
+        written += n;
+        notifyAll();
+    }
+
+    private static class Request {
+        Request(TestResult testResult, BackupPolicy backupPolicy) {
+            this.testResult = testResult;
+            this.backupPolicy = backupPolicy;
+        }
+
+        final TestResult testResult;
+        final BackupPolicy backupPolicy;
+    }
+
+    private final WorkDirectory workDir;
+    private final BlockingQueue queue;
+    private final Thread worker;
+    private final Thread shutdownHandler;
+    private final Object putLock = new Object();
+    private long submitted;
+    private long written;
+    private boolean closed;
+
+    private static final int DEFAULT_QUEUE_SIZE = 64;
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final int FLUSH_POLL_INTERVAL = 1000;
+    private static I18NResourceBundle i18n = I18NResourceBundle.getBundleForClass(ResultWriter.class);
+}
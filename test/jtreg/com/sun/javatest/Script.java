@@ -153,6 +153,17 @@ public abstract class Script
         testResult = tr;
     }
 
+    /**
+     * Initialize the result of an earlier attempt to run the same test in
+     * this test run. The sections of the earlier attempt are copied into
+     * the new test result, and if the test now passes, it is marked as
+     * {@link TestResult#FLAKY flaky}.
+     * @param tr the result of the earlier attempt
+     */
+    void initPreviousAttempt(TestResult tr) {
+        previousAttempt = tr;
+    }
+
     /**
      * Run the script, to fill out the test results for the test description
      * given to <code>init</code>. Most implementations will use the default
@@ -182,6 +193,17 @@ public abstract class Script
             }
         }
 
+        // if requested, the complete output of any streams which overflow
+        // is written alongside the test result file, replacing that written
+        // by the previous run of the test
+        String wrp = TestResult.getWorkRelativePath(td);
+        TestResult previous = null;
+        if (TestResult.isSpillOutputEnabled()) {
+            TestResultTable trt = workDir.getTestResultTable();
+            previous = (trt == null ? null : trt.lookup(wrp));
+        }
+        testResult.setSpillPrefix(workDir.getFile(wrp.substring(0, wrp.lastIndexOf('.'))), previous);
+
         String descUrl = td.getFile().toURI().toASCIIString();
         String id = td.getId();
         if (id != null)
@@ -211,7 +233,13 @@ public abstract class Script
         env.put("testURL", descUrl);
         env.put("testPath", td.getRootRelativeURL());
 
-        int timeout = getTestTimeout();
+        int attempt = 1;
+        if (previousAttempt != null) {
+            attempt = copyPreviousAttempts(previousAttempt) + 1;
+            testResult.putProperty(TestResult.ATTEMPT, String.valueOf(attempt));
+        }
+
+        int timeout = getAdaptiveTimeout(getTestTimeout());
         PrintStream out = System.out;
         PrintStream err = System.err;
 
@@ -242,6 +270,8 @@ public abstract class Script
                 execStatus = Status.error(i18n.getString("script.interrupted"));
 
             testResult.putProperty(TestResult.END, (new Date()).toString());
+            if (timedOut)
+                testResult.putProperty(TestResult.TIMED_OUT, "true");
 
             if (execStatus == null) {
                 execStatus = Status.error(i18n.getString("script.noStatus"));
@@ -257,19 +287,91 @@ public abstract class Script
                 }
             }
 
+            if (previousAttempt != null && execStatus.getType() == Status.PASSED) {
+                testResult.putProperty(TestResult.FLAKY, "true");
+                execStatus = Status.passed(i18n.getString("script.flakyPass",
+                        new Object[] { execStatus.getReason(), new Integer(attempt) }));
+            }
+
         }
 
         testResult.setEnvironment(env);
+        if (execStatus.getType() == Status.PASSED)
+            testResult.deleteSpilledOutput();
         testResult.setStatus(execStatus);
 
         try {
-            if (execStatus.getType() != Status.PASSED || jtrIfPassed)
-                testResult.writeResults(workDir, backupPolicy);
+            if (execStatus.getType() != Status.PASSED || jtrIfPassed) {
+                // the writer may be closed at the end of the run after
+                // it has been obtained; if so, write the results directly
+                ResultWriter w = workDir.getResultWriter();
+                if (w == null || !w.write(testResult, backupPolicy))
+                    testResult.writeResults(workDir, backupPolicy);
+            }
         }
         catch (IOException e) {
             // ignore it; the test will have an error status already
             //throw new JavaTestError("Unable to write result file! " + e);
         }
+        catch (InterruptedException e) {
+            // the test run is being stopped; write the results directly
+            // rather than lose them
+            try {
+                testResult.writeResults(workDir, backupPolicy);
+            }
+            catch (IOException ignore) {
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copy the sections of the earlier attempts to run this test into the
+     * current test result. The sections of each attempt are given titles
+     * beginning with the attempt number, such as <code>attempt1_compile</code>.
+     * @param prev the result of the most recent earlier attempt
+     * @return the attempt number of the most recent earlier attempt
+     */
+    private int copyPreviousAttempts(TestResult prev) {
+        int prevAttempt = 1;
+        try {
+            String a = prev.getProperty(TestResult.ATTEMPT);
+            if (a != null)
+                prevAttempt = Integer.parseInt(a);
+        }
+        catch (TestResult.Fault e) {
+        }
+        catch (NumberFormatException e) {
+        }
+
+        try {
+            for (int i = 0; i < prev.getSectionCount(); i++) {
+                TestResult.Section ps = prev.getSection(i);
+                String title = ps.getTitle();
+                // sections of still earlier attempts have already been renamed
+                if (!title.startsWith(ATTEMPT_PREFIX))
+                    title = ATTEMPT_PREFIX + prevAttempt + "_" + title;
+                Status st = (TestResult.MSG_SECTION_NAME.equals(ps.getTitle())
+                             ? prev.getStatus() : ps.getStatus());
+
+                TestResult.Section s = testResult.createSection(title);
+                String[] names = ps.getOutputNames();
+                for (int j = 0; j < names.length; j++) {
+                    String text = ps.getOutput(names[j]);
+                    PrintWriter pw = (names[j].equals(TestResult.MESSAGE_OUTPUT_NAME)
+                                      ? s.getMessageWriter() : s.createOutput(names[j]));
+                    if (text != null)
+                        pw.write(text);
+                    pw.flush();
+                }
+                s.setStatus(st == null ? prev.getStatus() : st);
+            }
+        }
+        catch (TestResult.ReloadFault e) {
+            trOut.println(i18n.getString("script.cantCopyAttempt", e.getMessage()));
+        }
+
+        return prevAttempt;
     }
 
     /**
@@ -405,6 +507,23 @@ public abstract class Script
         return (int) (10 * 60 * factor);
     }
 
+    /**
+     * Adjust a timeout for this test according to its recorded execution
+     * times, if adaptive timeouts have been enabled, so that a test which
+     * hangs is stopped long before its declared timeout expires.
+     * The result is never more than the given timeout, and a timeout
+     * of zero (meaning no timeout) is never changed.
+     * @param timeout the declared timeout, in seconds
+     * @return the timeout to be used, in seconds
+     * @see DurationHistory
+     */
+    protected int getAdaptiveTimeout(int timeout) {
+        if (!TimeoutPolicy.isEnabled() || workDir == null || td == null)
+            return timeout;
+        return TimeoutPolicy.getTimeout(workDir.getDurationHistory(),
+                                        td.getRootRelativeURL(), timeout);
+    }
+
     /**
      * Compile the given source files individually. One at a time, each source file
      * is passed to <em>compileTogether</em>, until they have all been
@@ -1290,6 +1409,7 @@ public abstract class Script
     private static final String DEFAULT_EXECUTE_COMMAND = "execute";
     private static final String DEFAULT_RMIC_COMMAND = "rmic";
     private static final String defaultClassDir = "classes";
+    private static final String ATTEMPT_PREFIX = "attempt";
     private static String osInfo;
 
     /**
@@ -1298,7 +1418,9 @@ public abstract class Script
     protected static Timer alarmTimer = new Timer();
 
     private TestResult testResult;
+    private TestResult previousAttempt;
     private Alarm alarm;
+    private volatile boolean timedOut;
     private boolean jtrIfPassed =
         System.getProperty("javatest.script.jtrIfPassed", "true").equals("true");
 
@@ -1325,8 +1447,10 @@ public abstract class Script
         }
 
         public synchronized void timeout() {
-            if (count == 0)
+            if (count == 0) {
                 trOut.println(i18n.getString("script.timeout", new Float(delay/1000.f)));
+                timedOut = true;
+            }
             else if (count%100 == 0) {
                 trOut.println(i18n.getString("script.notResponding", new Integer(count)));
                 if (count%1000 == 0)
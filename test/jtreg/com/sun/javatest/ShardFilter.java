@@ -0,0 +1,172 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sun.javatest.util.I18NResourceBundle;
+
+/**
+ * A test filter that divides the tests into a number of shards, and
+ * accepts the tests in one of them, so that a test run can be split
+ * across several machines.
+ * <p>
+ * The division is deterministic: all the shards of a test run should
+ * be given the same {@link DurationHistory duration history}, such as
+ * that of a work directory into which the results of an earlier sharded
+ * run were {@link WorkDirectoryMerger merged}, and each test will then
+ * be accepted by exactly one of the shards. Tests with a recorded history
+ * are assigned to shards so as to even out the total expected time of
+ * each shard, longest tests first; other tests are assigned to shards
+ * according to a hash of their name.
+ */
+public class ShardFilter extends TestFilter {
+    /**
+     * Create a filter that accepts the tests in one shard.
+     * @param index the index of the shard to be accepted, from 1 to <code>count</code>
+     * @param count the number of shards into which to divide the tests
+     * @param history the history used to balance the shards,
+     * or null if no history is available
+     * @throws IllegalArgumentException if the index or count is out of range
+     */
+    public ShardFilter(int index, int count, DurationHistory history) {
+        if (count < 1 || index < 1 || index > count)
+            throw new IllegalArgumentException(index + "/" + count);
+        this.index = index;
+        this.count = count;
+        if (history != null)
+            assignShards(history);
+    }
+
+    /**
+     * Get the index of the shard accepted by this filter.
+     * @return the index of the shard accepted by this filter, from 1 to
+     * {@link #getCount}
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the number of shards into which the tests are divided.
+     * @return the number of shards into which the tests are divided
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the index of the shard to which a test is assigned.
+     * @param testName the name of the test
+     * @return the index of the shard to which the test is assigned,
+     * from 1 to {@link #getCount}
+     */
+    public int getShard(String testName) {
+        Integer i = (Integer) (shards.get(testName));
+        if (i != null)
+            return i.intValue();
+        // String.hashCode is specified, so this is the same on all hosts
+        return (testName.hashCode() & 0x7fffffff) % count + 1;
+    }
+
+    public String getName() {
+        return i18n.getString("shardFilter.name");
+    }
+
+    public String getDescription() {
+        return i18n.getString("shardFilter.description");
+    }
+
+    public String getReason() {
+        return i18n.getString("shardFilter.reason", new Object[] { new Integer(index), new Integer(count) });
+    }
+
+    public boolean accepts(TestDescription td) {
+        return (getShard(td.getRootRelativeURL()) == index);
+    }
+
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+
+        if (!(o instanceof ShardFilter))
+            return false;
+
+        ShardFilter other = (ShardFilter) o;
+        return (index == other.index
+                && count == other.count
+                && shards.equals(other.shards));
+    }
+
+    public int hashCode() {
+        return index * 31 + count;
+    }
+
+    /**
+     * Assign the tests in the history to shards, taking the longest tests
+     * first, and giving each to the shard with the least total time so far.
+     */
+    private void assignShards(final DurationHistory history) {
+        String[] names = history.getTestNames();
+        final long[] estimates = new long[names.length];
+        Integer[] order = new Integer[names.length];
+        for (int i = 0; i < names.length; i++) {
+            estimates[i] = history.getEstimate(names[i]);
+            order[i] = new Integer(i);
+        }
+
+        // names are already sorted, so the sort is fully determined by the
+        // estimates, and ties are broken by name
+        Arrays.sort(order, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long e1 = estimates[((Integer) o1).intValue()];
+                long e2 = estimates[((Integer) o2).intValue()];
+                return (e1 > e2 ? -1 : e1 < e2 ? 1 : 0);
+            }
+        });
+
+        long[] loads = new long[count];
+        for (int i = 0; i < order.length; i++) {
+            int t = order[i].intValue();
+            int s = 0;
+            for (int j = 1; j < count; j++) {
+                if (loads[j] < loads[s])
+                    s = j;
+            }
+            loads[s] += estimates[t];
+            shards.put(names[t], new Integer(s + 1));
+        }
+    }
+
+    private final int index;
+    private final int count;
+    private Map shards = new HashMap();
+    private static I18NResourceBundle i18n = I18NResourceBundle.getBundleForClass(ShardFilter.class);
+}
@@ -0,0 +1,182 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.sun.javatest.util.StringArray;
+
+/**
+ * Keeps track of the tests that are running, to determine whether
+ * another test may be started.
+ * <p>
+ * A test may declare a set of named exclusive resources, with the
+ * {@link #RESOURCES} parameter, and a weight, with the {@link #WEIGHT}
+ * parameter. A test may only be started if there is a free slot,
+ * none of its resources are held by a running test, and its weight
+ * does not take the total weight of the running tests over the budget.
+ * A test that is heavier than the entire budget may be started when
+ * no other tests are running.
+ */
+class SlotAllocator
+{
+    /**
+     * The name of the test description parameter giving the names of the
+     * exclusive resources required by a test, separated by white space.
+     */
+    static final String RESOURCES = "resources";
+
+    /**
+     * The name of the test description parameter giving the weight
+     * of a test. The default weight is 1.
+     */
+    static final String WEIGHT = "weight";
+
+    /**
+     * Create an allocator.
+     * @param maxTests the maximum number of tests that may be running at once
+     * @param weightBudget the maximum total weight of the tests that may be
+     * running at once
+     */
+    SlotAllocator(int maxTests, int weightBudget) {
+        this.maxTests = maxTests;
+        this.weightBudget = weightBudget;
+    }
+
+    /**
+     * Create an allocator for a test run. The weight budget is given by the
+     * system property <code>javatest.weightBudget</code>, and defaults to
+     * the concurrency.
+     * @param concurrency the maximum number of tests that may be running at once
+     * @return an allocator for a test run with the given concurrency
+     */
+    static SlotAllocator create(int concurrency) {
+        Integer budget = Integer.getInteger("javatest.weightBudget");
+        return new SlotAllocator(concurrency,
+                                 (budget == null ? concurrency : budget.intValue()));
+    }
+
+    /**
+     * Change the maximum number of tests that may be running at once.
+     * If the maximum is reduced below the number of tests already running,
+     * no more tests will be started until enough of them have completed.
+     * @param maxTests the maximum number of tests that may be running at once
+     */
+    synchronized void setMaxTests(int maxTests) {
+        this.maxTests = maxTests;
+        notifyAll();
+    }
+
+    /**
+     * Get the maximum number of tests that may be running at once.
+     * @return the maximum number of tests that may be running at once
+     */
+    synchronized int getMaxTests() {
+        return maxTests;
+    }
+
+    /**
+     * Check if the maximum number of tests are running.
+     * @return true if the maximum number of tests are running
+     */
+    synchronized boolean isFull() {
+        return (running >= maxTests);
+    }
+
+    /**
+     * Allocate a slot to a test, if it can be started now.
+     * @param td the test to be started
+     * @return true if the test may be started, and false otherwise
+     */
+    synchronized boolean tryAllocate(TestDescription td) {
+        if (running >= maxTests)
+            return false;
+
+        int w = getWeight(td);
+        if (running > 0 && usedWeight + w > weightBudget)
+            return false;
+
+        String[] rr = getResources(td);
+        for (int i = 0; i < rr.length; i++) {
+            if (resourcesInUse.contains(rr[i]))
+                return false;
+        }
+
+        for (int i = 0; i < rr.length; i++)
+            resourcesInUse.add(rr[i]);
+        usedWeight += w;
+        running++;
+        return true;
+    }
+
+    /**
+     * Allocate a slot to a test, waiting until it can be started.
+     * @param td the test to be started
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    synchronized void allocate(TestDescription td) throws InterruptedException {
+        while (!tryAllocate(td))
+            wait();
+    }
+
+    /**
+     * Release the slot and any resources held by a test that has completed,
+     * and notify any threads waiting on this object.
+     * @param td the test that has completed
+     */
+    synchronized void release(TestDescription td) {
+        String[] rr = getResources(td);
+        for (int i = 0; i < rr.length; i++)
+            resourcesInUse.remove(rr[i]);
+        usedWeight -= getWeight(td);
+        running--;
+        notifyAll();
+    }
+
+    static int getWeight(TestDescription td) {
+        String w = td.getParameter(WEIGHT);
+        if (w == null)
+            return 1;
+        try {
+            return Math.max(0, Integer.parseInt(w.trim()));
+        }
+        catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    static String[] getResources(TestDescription td) {
+        return StringArray.split(td.getParameter(RESOURCES));
+    }
+
+    private int maxTests;
+    private final int weightBudget;
+    private int running;
+    private int usedWeight;
+    private Set resourcesInUse = new HashSet();
+}
@@ -870,7 +870,7 @@ class TRT_Iterator implements TestResultTable.TreeIterator {
     private boolean recordRejects;      // true when we are collecting reject stats
     private Hashtable filteredTRs;      // key==TestFilter  value=Vector of TestResults
     private TestResult currentResult;   // necessary communicate with filter observer, yuck
-    private Object rejLock;
+    private Object rejLock = new Object();
     private FilterObserver fo;          // null if feature is disabled
 
     // ------ state information ------
@@ -0,0 +1,210 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A node in a point in time copy of a TestResultTable.  The copy never
+ * changes, so it can be read without any locking, however the table itself
+ * is being updated.
+ * <p>
+ * The contents of each node are copied once, and are shared by later
+ * snapshots until that node, or a node below it, is changed; so taking
+ * a new snapshot only copies the parts of the tree which have changed
+ * since the last one.  Since the contents may be shared, each snapshot node
+ * is just a view of them, and new views of the child nodes are created as
+ * they are requested.
+ *
+ * @see TestResultTable#getSnapshot
+ */
+class TRT_Snapshot implements TestResultTable.TreeNode {
+    TRT_Snapshot(Contents contents, TRT_Snapshot parent, TestResultTable table) {
+        this.contents = contents;
+        this.parent = parent;
+        this.table = table;
+    }
+
+    /**
+     * Observers are never notified, since the snapshot never changes.
+     */
+    public void addObserver(TestResultTable.TreeNodeObserver obs) {
+    }
+
+    public void removeObserver(TestResultTable.TreeNodeObserver obs) {
+    }
+
+    public int getSize() {
+        return contents.size;
+    }
+
+    public TestResultTable.TreeNode getParent() {
+        return parent;
+    }
+
+    public boolean isRoot() {
+        return (parent == null);
+    }
+
+    /**
+     * Get the table of which this is a snapshot.
+     */
+    public TestResultTable getEnclosingTable() {
+        return table;
+    }
+
+    public boolean isUpToDate() {
+        return true;
+    }
+
+    public int getChildCount() {
+        return contents.children.length;
+    }
+
+    public Object getChild(int index) {
+        if (index < 0 || index >= contents.children.length)
+            return null;
+
+        Object o = contents.children[index];
+        if (o instanceof Contents)
+            return new TRT_Snapshot((Contents)o, this, table);
+        else
+            return o;
+    }
+
+    public TestResult[] getTestResults() {
+        List l = new ArrayList();
+        for (int i = 0; i < contents.children.length; i++) {
+            if (contents.children[i] instanceof TestResult)
+                l.add(contents.children[i]);
+        }
+
+        if (l.isEmpty())
+            return null;
+        else
+            return (TestResult[])(l.toArray(new TestResult[l.size()]));
+    }
+
+    public TestResultTable.TreeNode[] getTreeNodes() {
+        List l = new ArrayList();
+        for (int i = 0; i < contents.children.length; i++) {
+            if (contents.children[i] instanceof Contents)
+                l.add(new TRT_Snapshot((Contents)contents.children[i], this, table));
+        }
+
+        if (l.isEmpty())
+            return null;
+        else
+            return (TestResultTable.TreeNode[])(l.toArray(new TestResultTable.TreeNode[l.size()]));
+    }
+
+    public String getName() {
+        return contents.name;
+    }
+
+    public boolean isLeaf(int index) {
+        if (index < 0 || index >= contents.children.length)
+            return false;
+
+        Object o = contents.children[index];
+        if (o instanceof Contents)
+            return (((Contents)o).children.length == 0);
+        else
+            return true;
+    }
+
+    public int[] getChildStatus() {
+        int[] copy = new int[contents.stats.length];
+        System.arraycopy(contents.stats, 0, copy, 0, copy.length);
+        return copy;
+    }
+
+    public int getIndex(Object target) {
+        if (target == null)
+            return -2;
+
+        // views of the same child node are not necessarily the same object
+        Object o = (target instanceof TRT_Snapshot ? ((TRT_Snapshot)target).contents : target);
+        for (int i = 0; i < contents.children.length; i++) {
+            if (contents.children[i] == o)
+                return i;
+        }
+
+        return -1;
+    }
+
+    public TestResult matchTest(String url) {
+        for (int i = 0; i < contents.children.length; i++) {
+            Object o = contents.children[i];
+            if (o instanceof TestResult && ((TestResult)o).getTestName().equals(url))
+                return (TestResult)o;
+        }
+
+        return null;
+    }
+
+    /**
+     * The unchanging contents of a node, which may be shared by several
+     * snapshots.  The children are TestResults and the Contents of the
+     * child nodes.
+     */
+    static class Contents {
+        Contents(String name, Object[] children, int version) {
+            this.name = name;
+            this.children = children;
+            this.version = version;
+
+            // count the tests from the copy, so that the counts match it
+            stats = new int[Status.NUM_STATES];
+            int n = 0;
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] instanceof Contents) {
+                    Contents c = (Contents)children[i];
+                    for (int j = 0; j < stats.length; j++)
+                        stats[j] += c.stats[j];
+                    n += c.size;
+                }
+                else {
+                    stats[((TestResult)children[i]).getStatus().getType()]++;
+                    n++;
+                }
+            }
+            size = n;
+        }
+
+        final String name;
+        final Object[] children;
+        final int version;          // version of the node when it was copied
+        final int[] stats;
+        final int size;
+    }
+
+    private final Contents contents;
+    private final TRT_Snapshot parent;
+    private final TestResultTable table;
+}
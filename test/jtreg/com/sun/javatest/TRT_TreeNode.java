@@ -27,8 +27,15 @@
 package com.sun.javatest;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.sun.javatest.util.Debug;
 import com.sun.javatest.util.DynamicArray;
@@ -40,6 +47,13 @@ import com.sun.javatest.TestResultTable.TreeNode;
  * This is the implementation of a tree node structure for TestResultTable.
  * Only the interface implementation is meant to be exposed.  Assumptions are made
  * that this is the only node class (implementation of TreeNode) used in the tree.
+ * <p>
+ * Methods which change the children of a node synchronize on the node, and
+ * take its write lock while the children are actually being changed; methods
+ * which only read the children just take its read lock, so that they can
+ * proceed concurrently with each other, and are only briefly held up by
+ * any changes.  The counters for the tests below each node are updated as
+ * tests are added and replaced, without locking.
  */
 
 public class TRT_TreeNode implements TestResultTable.TreeNode {
@@ -81,7 +95,7 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
     public int getSize() {
         scanSubtree(this);
 
-        return counter;
+        return counters.get(TOTAL);
     }
 
     public TestResultTable.TreeNode getParent() {
@@ -112,8 +126,13 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
     public int getChildCount() {
         scanIfNeeded();
 
-        if (childs == null) return 0;
-        else return childs.length;
+        lock.readLock().lock();
+        try {
+            return childCount;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
     }
 
     public Object getChild(int index) {
@@ -134,10 +153,16 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
         if (!suppressScan)
             scanIfNeeded();
 
-        if (childs == null || index >= childs.length)
-            return null;
-        else
-            return childs[index];
+        lock.readLock().lock();
+        try {
+            if (childs == null || index < 0 || index >= childCount)
+                return null;
+            else
+                return childs[index];
+        }
+        finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -146,16 +171,22 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
     public TestResult[] getTestResults() {
         scanIfNeeded();
 
-        TestResult[] leafs = null;
-
-        if (childs != null && childs.length != 0) {
-            for (int i = 0; i < childs.length; i++) {
+        List leafs = new ArrayList();
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < childCount; i++) {
                 if (childs[i] instanceof TestResult)
-                    leafs = (TestResult[])(DynamicArray.append(leafs, childs[i]));
+                    leafs.add(childs[i]);
             }   // for
         }
+        finally {
+            lock.readLock().unlock();
+        }
 
-        return leafs;
+        if (leafs.isEmpty())
+            return null;
+        else
+            return (TestResult[])(leafs.toArray(new TestResult[leafs.size()]));
     }
 
     /**
@@ -165,17 +196,25 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
     public TestResultTable.TreeNode[] getTreeNodes() {
         scanIfNeeded();
 
-        if (childs == null)
-            return null;
-
-        TestResultTable.TreeNode[] leafs = null;
+        List leafs = new ArrayList();
+        lock.readLock().lock();
+        try {
+            if (childs == null)
+                return null;
 
-        for (int i = 0; i < childs.length; i++) {
-            if (childs[i] instanceof TestResultTable.TreeNode)
-                leafs = (TestResultTable.TreeNode[])(DynamicArray.append(leafs, childs[i]));
+            for (int i = 0; i < childCount; i++) {
+                if (childs[i] instanceof TestResultTable.TreeNode)
+                    leafs.add(childs[i]);
+            }
+        }
+        finally {
+            lock.readLock().unlock();
         }
 
-        return leafs;
+        if (leafs.isEmpty())
+            return null;
+        else
+            return (TestResultTable.TreeNode[])(leafs.toArray(new TestResultTable.TreeNode[leafs.size()]));
     }
 
     public String getName() {
@@ -185,25 +224,31 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
     public boolean isLeaf(int index) {
         scanIfNeeded();
 
-        if (index < 0 || index >= childs.length)
-            return false;
-        else if (childs[index] instanceof TestResult)
-            return true;
-        else if (childs[index] instanceof TRT_TreeNode) {
-            // if there are no nodes or tests below, then...
-            return (childs == null || childs.length == 0);
+        lock.readLock().lock();
+        try {
+            if (childs == null || index < 0 || index >= childCount)
+                return false;
+            else if (childs[index] instanceof TestResult)
+                return true;
+            else if (childs[index] instanceof TRT_TreeNode) {
+                // if there are no nodes or tests below, then...
+                return (childCount == 0);
+            }
+            else        // should never be the case
+                return false;
+        }
+        finally {
+            lock.readLock().unlock();
         }
-        else        // should never be the case
-            return false;
     }
 
     public int[] getChildStatus() {
         scanSubtree(this);
 
-        if (childStats == null)
-            refreshChildStats(this);
-
-        return childStats;
+        int[] stats = new int[Status.NUM_STATES];
+        for (int i = 0; i < stats.length; i++)
+            stats[i] = counters.get(i);
+        return stats;
     }
 
     public int getIndex(Object target) {
@@ -218,9 +263,26 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
             return -2;
         else if (childs == null)
             return -1;      // not found
+        else if (target instanceof TestResult) {
+            // the test results are indexed by name, so look up the index
+            // that way, and check it refers to this object
+            int i = getResultIndex(((TestResult)target).getWorkRelativePath(), true);
+            if (i != -1 && getChild(i, true) == target) return i;
+        }
+        else if (target instanceof TRT_TreeNode &&
+                 ((TRT_TreeNode)target).getName() != null) {
+            int i = getNodeIndex(((TRT_TreeNode)target).getName(), true);
+            if (i != -1 && getChild(i, true) == target) return i;
+        }
         else {
-            for (int i = 0; i < childs.length; i++)
-                if (childs[i] == target) return i;
+            lock.readLock().lock();
+            try {
+                for (int i = 0; i < childCount; i++)
+                    if (childs[i] == target) return i;
+            }
+            finally {
+                lock.readLock().unlock();
+            }
         }
 
         // not found
@@ -241,29 +303,28 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
         //if (file.isDirectory())
         //   throw new JavaTestError(i18n, "trttn.noPaths");
 
-        if (childs == null || childs.length == 0) return null;
+        TestResult[] tests = getTestResults();
+        if (tests == null) return null;
 
-        for (int i = 0; i < childs.length; i++) {
-            if (childs[i] instanceof TestResult) {
-                TestResult tr = (TestResult)(childs[i]);
+        for (int i = 0; i < tests.length; i++) {
+            TestResult tr = tests[i];
 
-                try {
-                    String name = tr.getDescription().getRootRelativeURL();
-                }
-                catch (TestResult.Fault f) {
-                    throw new JavaTestError(i18n, "trttn.noTd", f);
-                }
+            try {
+                String name = tr.getDescription().getRootRelativeURL();
+            }
+            catch (TestResult.Fault f) {
+                throw new JavaTestError(i18n, "trttn.noTd", f);
+            }
 
-                if (debug > 1)
-                    Debug.println("   -> trying to match against " + name);
+            if (debug > 1)
+                Debug.println("   -> trying to match against " + name);
 
-                if ( name.equals(url) ) {
-                    found = (TestResult)childs[i];
-                    i = childs.length;    // exit loop
-                }
-                else
-                    found = null;
+            if ( name.equals(url) ) {
+                found = tr;
+                i = tests.length;    // exit loop
             }
+            else
+                found = null;
         }
 
         return found;
@@ -280,7 +341,7 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
      */
     TRT_TreeNode(TestResultTable table, TestResultTable.TreeNode parent) {
         childs = null;
-        counter = 0;
+        childCount = 0;
         name = null;        // the only node with this value null is the root
         this.table = table;
         this.parent  = (TRT_TreeNode)parent;
@@ -293,88 +354,48 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
      * @see #getSize()
      */
     int getCurrentSize() {
-        return counter;
+        return counters.get(TOTAL);
     }
 
     /**
-     * Increment the child status counter for the given Status type.
-     * The parameter should correspond to one of the states defined in
-     * the Status object.
+     * Add to the counters for the tests below this node, and the nodes above
+     * it, and notify the observers of each node that the counters have changed.
      *
-     * @deprecated Use bubbleUpChildStat()
-     * @see Status
+     * @param total The change in the number of tests.
+     * @param stats The change in the number of tests with each status type.
+     *        May be null if there is no change.
      */
-    void incChildStat(int which) {
-        childStats[which]++;
-    }
-
-    /**
-     * Increment the child status counter for the given Status type.
-     * The parameter should correspond to one of the states defined in
-     * the Status object.
-     *
-     * @deprecated Use bubbleUpChildStat()
-     * @see Status
-     */
-    void decChildStat(int which) {
-        childStats[which]--;
-    }
-
-    void invalidateChildStats() {
-        childStats = null;
-        notifyCounterChange();
-        TRT_TreeNode parent = (TRT_TreeNode)(getParent());
-
-        if (parent != null)
-            parent.invalidateChildStats();
-    }
-
-    boolean isChildStatsValid() {
-        return (childStats == null);
+    void bubbleUpCounters(int total, int[] stats) {
+        for (TRT_TreeNode node = this; node != null; node = node.parent) {
+            if (total != 0)
+                node.counters.add(TOTAL, total);
+            if (stats != null) {
+                for (int i = 0; i < stats.length; i++) {
+                    if (stats[i] != 0)
+                        node.counters.add(i, stats[i]);
+                }
+            }
+            node.notifyCounterChange();
+        }
     }
 
     /**
-     * Increment the child status counter for the given Status type.
-     * The parameter should correspond to one of the states defined in
-     * the Status object.
-     *
-     * @deprecated
-     * @see Status
+     * Update the counters after a test has been added to this node.
      */
-    static void bubbleUpChildStat(TRT_TreeNode node, int which) {
-        node.childStats[which]++;
-        TRT_TreeNode parent = (TRT_TreeNode)(node.getParent());
-
-        if (parent != null) bubbleUpChildStat(parent, which);
+    private void countAddedTest(TestResult tr) {
+        int[] stats = new int[Status.NUM_STATES];
+        stats[tr.getStatus().getType()]++;
+        bubbleUpCounters(1, stats);
     }
 
     /**
-     * Decrement then increment the child status counter for the given Status type.
-     * The parameters should correspond to one of the states defined in
-     * the Status object. This method facilitates updating of TestResults - changing
-     * from one status to another.  This change in similar to bubbleUpChildStat()
-     * in that it automatically affects node from the current location up to the
-     * root.
-     *
-     * @see Status
+     * Update the counters after a test in this node has been replaced.
      */
-    static void swapChildStat(TRT_TreeNode node, int oldStatus, int newStatus) {
-        node.childStats[oldStatus]--;
-        node.childStats[newStatus]++;
-
-        TRT_TreeNode parent = (TRT_TreeNode)(node.getParent());
-
-        if (parent != null) swapChildStat(parent, oldStatus, newStatus);
-    }
-
-    /**
-     * Increment the counter that tracks how many nodes are under this node.
-     *
-     * @deprecated Use bubbleUpCounterInc() instead
-     * @see #bubbleUpCounterInc()
-     */
-    void incNodeCounter() {
-        counter++;
+    private void countReplacedTest(TestResult oldTr, TestResult newTr) {
+        int[] stats = new int[Status.NUM_STATES];
+        stats[oldTr.getStatus().getType()]--;
+        stats[newTr.getStatus().getType()]++;
+        bubbleUpCounters(0, stats);
     }
 
     /**
@@ -489,37 +510,30 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
      *
      * @return The index of the request test result.  -1 if not found.
      */
-    synchronized int getResultIndex(String jtrPath, boolean suppressScan) {
+    int getResultIndex(String jtrPath, boolean suppressScan) {
         if (jtrPath == null)
             throw new JavaTestError(i18n, "trttn.nullSearch");
 
         if (!suppressScan)
             scanIfNeeded();
 
-        int found = -1;
-
-        if (childs != null && childs.length != 0) {
-            for (int i = 0; i < childs.length; i++) {
-                if (childs[i] instanceof TestResult) {
-                    TestResult tr = (TestResult)childs[i];
+        lock.readLock().lock();
+        try {
+            if (childs == null || childCount == 0)
+                return -1;
 
-                    if (tr.getWorkRelativePath().equals(jtrPath)) {
-                        found = i;
-                        break;
-                    }
-                    else {
-                        // not a previous instance of this TR, skip it
-                        // placeholder to avoid dangling else
-                    }
-                }
-                else {
-                    // this is a TreeNode, skip it
-                    // placeholder to avoid dangling else
-                }
-            }   // for
-        }   // outer if
+            Map index = testIndex;
+            if (index == null) {
+                buildIndex();
+                index = testIndex;
+            }
 
-        return found;
+            Integer found = (Integer)(index.get(jtrPath));
+            return (found == null ? -1 : found.intValue());
+        }
+        finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -545,45 +559,50 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
      *             "api/java_lang"
      * @return The index of the requested TRT_TreeNode.
      */
-    synchronized int getNodeIndex(String name, boolean suppressScan) {
+    int getNodeIndex(String name, boolean suppressScan) {
         if (!suppressScan)
             scanIfNeeded();
 
-        int found = -1;
-
         if (name == null)
             throw new JavaTestError(i18n, "trttn.nullSearch");
 
-        if (childs == null || childs.length == 0)
-            found = -1;
-        else {
-            for (int i = 0; i < childs.length; i++) {
-                if (childs[i] instanceof TRT_TreeNode) {
-                    TRT_TreeNode tn = (TRT_TreeNode)childs[i];
-                    if (tn.getName().equals(name)) {
-                        found = i;
-                        break;
-                    }
-                    else {
-                        // not a match
-                        // placeholder to avoid dangling else
-                    }
-                }
-                else {
-                    // this is a TestResult, skip it
-                    // placeholder to avoid dangling else
-                }
-            }   // for
-        }   // outer else
+        lock.readLock().lock();
+        try {
+            if (childs == null || childCount == 0)
+                return -1;
+
+            // the node index is set before the test index, and both are
+            // cleared together, so check the test index
+            Map index = (testIndex == null ? null : nodeIndex);
+            if (index == null) {
+                buildIndex();
+                index = nodeIndex;
+            }
 
-        return found;
+            Integer found = (Integer)(index.get(name));
+            return (found == null ? -1 : found.intValue());
+        }
+        finally {
+            lock.readLock().unlock();
+        }
     }
 
 // ---- BEGIN lazy tree with finder ----
     /**
      * In the case where a test finder is being used, nodes are read lazily.
      */
-    synchronized void scanIfNeeded() {
+    void scanIfNeeded() {
+        // once the node has been scanned, don't take the lock, which may
+        // be held for a long time while the node is being updated
+        if (scanned || table.getTestFinder() == null)
+            return;
+
+        scan();
+        if (isUpToDate())
+            scanned = true;
+    }
+
+    private synchronized void scan() {
         if (debug > 0) {
             Debug.println("starting scanIfNeeded() on node " + getName());
         }
@@ -595,8 +614,15 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
             return;
         }
 
-        if (childs == null)
-            childs = new Object[0];
+        if (childs == null) {
+            lock.writeLock().lock();
+            try {
+                childs = new Object[0];
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
         /*
         File thisDir = new File(table.getTestFinder().getRootDir().getAbsolutePath() + File.separator +
                                 TestResultTable.getRootRelativePath(this));
@@ -982,11 +1008,13 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
     private TestResult replaceTest(TestResult newTr, int index) {
         TestResult oldTr = (TestResult)childs[index];
 
-        childs[index] = newTr;
+        setChild(index, newTr);
+        if (table != null)
+            table.addToIndex(newTr);
+        countReplacedTest(oldTr, newTr);
         notifyReplacedResult(oldTr, newTr, index);
         newTr.setParent(this);
         oldTr.setParent(null);
-        //invalidateChildStats();
         return newTr;
     }
 
@@ -1387,7 +1415,7 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
             Debug.println("   -> local node ref: " + this);
             Debug.println("   -> local node name: " + this.getName());
             Debug.println("   -> local size: " +
-                            (childs == null ? 0 : childs.length));
+                            (childs == null ? 0 : childCount));
         }
 
         int oldIndex = getTestIndex(tr, suppressScan);
@@ -1401,22 +1429,19 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
                 if (debug > 1)
                     Debug.println("   -> no old entry for " + tr);
 
-                try {
-                    // XXX should cache result of Class.forName
-                    childs = DynamicArray.append(childs, tr, Class.forName("java.lang.Object"));
-                    tr.setParent(this);
-                    bubbleUpCounterInc();
-                    notifyInsResult(tr, childs.length-1);
-                }       // try
-                catch (ClassNotFoundException e) {
-                    throw new JavaTestError(i18n, "trttn.noObject", e);
-                }       // catch
+                int index = appendChild(tr);
+                tr.setParent(this);
+                countAddedTest(tr);
+                notifyInsResult(tr, index);
             }
         }
         else if (shouldReplaceTest(oldIndex, tr, suppressScan)) {
             // replace a previous result
             oldTR = (TestResult)childs[oldIndex];
-            childs[oldIndex] = tr;
+            setChild(oldIndex, tr);
+            if (table != null)
+                table.addToIndex(tr);
+            countReplacedTest(oldTR, tr);
             if (debug > 1) {
                 Debug.println("   -> ** replacing existing TR with " + tr);
                 Debug.println("   -> " + tr.getTestName());
@@ -1445,8 +1470,6 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
             return tr;
         }
 
-        invalidateChildStats();
-
         return oldTR;
     }
 
@@ -1461,24 +1484,37 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
         if (!suppressScan)
             scanIfNeeded();
 
-        try {
-            childs = DynamicArray.append(childs, tn,
-                                         Class.forName("java.lang.Object"));
-        }
-        catch (ClassNotFoundException e) {
-            throw new JavaTestError(i18n, "trttn.noObject", e);
-        }
+        appendChild(tn);
     }
 
     synchronized int rmChild(TRT_TreeNode tn) {
         if (childs == null)
             throw new IllegalStateException("Node is empty!");
 
-        for (int i = 0; i < childs.length; i++) {
+        for (int i = 0; i < childCount; i++) {
             if (childs[i] == tn) {
-                Object[] newarr = DynamicArray.remove(childs, i);
-                childs = (newarr == null ? new Object[0] : newarr);
-                invalidateChildStats();
+                lock.writeLock().lock();
+                try {
+                    System.arraycopy(childs, i + 1, childs, i, childCount - i - 1);
+                    childs[--childCount] = null;
+
+                    // the indexes of the later children have changed
+                    testIndex = null;
+                    nodeIndex = null;
+                }
+                finally {
+                    lock.writeLock().unlock();
+                }
+                invalidateSnapshot();
+                tn.removeFromTableIndex();
+
+                // remove the tests below the node from the counters; read the
+                // node's counters directly, since getChildStatus would scan
+                // the subtree that is being removed
+                int[] stats = new int[Status.NUM_STATES];
+                for (int j = 0; j < stats.length; j++)
+                    stats[j] = -tn.counters.get(j);
+                bubbleUpCounters(-tn.getCurrentSize(), stats);
                 return i;
             }
         }   // for
@@ -1486,6 +1522,151 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
         return -1;      // not found!
     }
 
+    /**
+     * Add a child to the end of the list of children, growing the array
+     * if needed.
+     * @return the index of the new child
+     */
+    private int appendChild(Object child) {
+        int index;
+        lock.writeLock().lock();
+        try {
+            if (childs == null)
+                childs = new Object[INITIAL_CAPACITY];
+            else if (childCount == childs.length) {
+                Object[] newArr = new Object[Math.max(INITIAL_CAPACITY, childCount * 2)];
+                System.arraycopy(childs, 0, newArr, 0, childCount);
+                childs = newArr;
+            }
+
+            index = childCount++;
+            childs[index] = child;
+            addToIndex(child, index);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        invalidateSnapshot();
+
+        if (table != null)
+            table.addToIndex(child);
+        return index;
+    }
+
+    /**
+     * Replace the child at the given position.
+     */
+    private void setChild(int index, Object child) {
+        lock.writeLock().lock();
+        try {
+            childs[index] = child;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        invalidateSnapshot();
+    }
+
+    /**
+     * Get an unchanging copy of the contents of this node and the nodes
+     * below it.  The copy is kept, and is reused until this node or one
+     * below it is changed.
+     */
+    TRT_Snapshot.Contents getSnapshotContents() {
+        scanIfNeeded();
+
+        // read the version before the children, so that if the node is
+        // changed while it is being copied, the copy is not reused
+        int v = version.get();
+        TRT_Snapshot.Contents c = snapshot;
+        if (c != null && c.version == v)
+            return c;
+
+        Object[] copy;
+        lock.readLock().lock();
+        try {
+            copy = new Object[childCount];
+            if (childCount > 0)
+                System.arraycopy(childs, 0, copy, 0, childCount);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        for (int i = 0; i < copy.length; i++) {
+            if (copy[i] instanceof TRT_TreeNode)
+                copy[i] = ((TRT_TreeNode)copy[i]).getSnapshotContents();
+        }
+
+        c = new TRT_Snapshot.Contents(name, copy, v);
+        snapshot = c;
+        return c;
+    }
+
+    /**
+     * Note that this node, and so every node above it, has changed since
+     * any copy of their contents was made.
+     */
+    private void invalidateSnapshot() {
+        for (TRT_TreeNode n = this; n != null; n = n.parent)
+            n.version.incrementAndGet();
+    }
+
+    /**
+     * Remove this node and everything below it from the path index of the table.
+     */
+    private synchronized void removeFromTableIndex() {
+        if (table == null)
+            return;
+
+        table.removeFromIndex(this);
+        for (int i = 0; i < childCount; i++) {
+            if (childs[i] instanceof TRT_TreeNode)
+                ((TRT_TreeNode)childs[i]).removeFromTableIndex();
+            else
+                table.removeFromIndex(childs[i]);
+        }
+    }
+
+    /**
+     * Build the indexes of the children, mapping the work relative path of
+     * each test result and the name of each node to its position.
+     */
+    private void buildIndex() {
+        // this may be called by several readers at once, so build the
+        // indexes before making them visible
+        Map tests = new HashMap();
+        Map nodes = new HashMap();
+        for (int i = 0; i < childCount; i++)
+            addToIndex(tests, nodes, childs[i], i);
+        nodeIndex = nodes;
+        testIndex = tests;
+    }
+
+    private void addToIndex(Object child, int index) {
+        Map tests = testIndex;
+        if (tests == null)
+            return;     // not built yet, will be built when needed
+
+        addToIndex(tests, nodeIndex, child, index);
+    }
+
+    private static void addToIndex(Map tests, Map nodes, Object child, int index) {
+        // don't replace an earlier entry; the linear search this replaces
+        // would have found that one first
+        Integer i = new Integer(index);
+        if (child instanceof TestResult) {
+            String path = ((TestResult)child).getWorkRelativePath();
+            if (!tests.containsKey(path))
+                tests.put(path, i);
+        }
+        else if (child instanceof TRT_TreeNode) {
+            String n = ((TRT_TreeNode)child).getName();
+            if (n != null && !nodes.containsKey(n))
+                nodes.put(n, i);
+        }
+    }
+
     void setName(String name) {
         this.name = name;
     }
@@ -1508,8 +1689,8 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
     private boolean shouldReplaceTest(int index, TestResult newone,
                                       boolean suppressScan) {
         // check for out of range indexes, types and null
-        if (!(childs[index] instanceof TestResult) || newone == null ||
-            index < 0 || index >= childs.length)
+        if (newone == null || index < 0 || index >= childCount ||
+            !(childs[index] instanceof TestResult))
             return false;
 
         TestResult orig = (TestResult)(childs[index]);
@@ -1578,47 +1759,6 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
         return false;
     }
 
-    /**
-     * Recalculate the counters which track the status of tests below this node.
-     * This can be a high cost calculation, but will do nothing if all the counters
-     * are up to date.
-     * It is assumed that if a node has null childStats, that all nodes between
-     * it and the root are also marked invalid.
-     */
-    private static void refreshChildStats(TRT_TreeNode node) {
-        if (node.childStats != null) return;        // nothing to do
-
-        node.childStats = new int[Status.NUM_STATES];
-
-        for (int i= 0; i < node.childs.length; i++) {
-            if (node.childs[i] instanceof TRT_TreeNode) {
-                // node is another branch
-                TRT_TreeNode child = (TRT_TreeNode)(node.childs[i]);
-                int[] stats = child.getChildStatus();
-
-                for (int j = 0; j < stats.length; j++)
-                    node.childStats[j] += stats[j];
-            }
-            else {
-                // node is a test result
-                TestResult tr = (TestResult)(node.childs[i]);
-                node.childStats[tr.getStatus().getType()]++;
-            }
-        }
-    }
-
-    /**
-     * Move up the tree to the root and increment the counter at each node.
-     * The current node's counter IS incremented.
-     */
-    void bubbleUpCounterInc() {
-        counter++;
-        notifyCounterChange();
-        TRT_TreeNode parent = (TRT_TreeNode)(getParent());
-
-        if (parent != null) parent.bubbleUpCounterInc();
-    }
-
     private int getTestSuitePathLen() {
         // testsuite location can either be:
         //    /tmp/foo/tests/testsuite.html
@@ -1701,11 +1841,24 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
      * null if the node has not been scanned, zero length if it is acually empty
      */
     private Object[] childs;            // contains combo of TreeNodes or TestResults
+    private int childCount;             // number of entries in childs that are in use
+    // indexes of the children, built when first needed, and discarded
+    // when a child is removed
+    private volatile Map testIndex;     // work relative path -> Integer position in childs
+    private volatile Map nodeIndex;     // node name -> Integer position in childs
+    // guards childs, childCount and the indexes; the write lock is only
+    // taken while holding the lock on this object
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private TRT_TreeNode parent;        // should never be null, unless root
+    // the latest copy of the contents for snapshots, and the version of
+    // the contents, which is incremented whenever this node or one below
+    // it is changed
+    private volatile TRT_Snapshot.Contents snapshot;
+    private final AtomicInteger version = new AtomicInteger();
     private TestResultTable table;      // what table this node is in
 
-    private int counter;                // nodes below this point and including self
-    private int[] childStats;
+    // the number of tests below this point, and the number with each status type
+    private final Counters counters = new Counters();
 
     private String name;                // basically the directory name, null means root node
 
@@ -1713,6 +1866,7 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
     //private int currDepth;           // currently unused
 
     private long lastScanDate;
+    private volatile boolean scanned;   // set when lastScanDate is first set
 
     // no per-instance array of observers, use a static Hashtable of arrays
     private static Hashtable observerTable = new Hashtable(16);
@@ -1727,10 +1881,38 @@ public class TRT_TreeNode implements TestResultTable.TreeNode {
      */
     private String[] filesToScan;       // in cases where the finder behaves like a web
 
+    private static final int INITIAL_CAPACITY = 4;
+    private static final int TOTAL = Status.NUM_STATES;    // index of the total in counters
+
     //static protected boolean debug = Boolean.getBoolean("debug." + TRT_TreeNode.class.getName());
     static protected int debug = Debug.getInt(TRT_TreeNode.class);
     private static I18NResourceBundle i18n = I18NResourceBundle.getBundleForClass(TRT_TreeNode.class);
 
+    /**
+     * Counters for the tests below a node: the number with each status type,
+     * and the total.  Each counter is spread over several stripes, so that
+     * threads updating the counters of the same node, such as the root,
+     * rarely contend with each other; the stripes are added up when a counter
+     * is read.  Each stripe occupies its own cache line.
+     */
+    private static class Counters {
+        void add(int which, int delta) {
+            int stripe = (int)(Thread.currentThread().getId() & (STRIPES - 1));
+            cells.addAndGet(stripe * STRIDE + which, delta);
+        }
+
+        int get(int which) {
+            int total = 0;
+            for (int i = 0; i < STRIPES; i++)
+                total += cells.get(i * STRIDE + which);
+            return total;
+        }
+
+        private final AtomicIntegerArray cells = new AtomicIntegerArray(STRIPES * STRIDE);
+        private static final int STRIPES = 4;      // must be a power of 2
+        private static final int STRIDE = 16;      // ints in a 64 byte cache line
+    }
+
     public static class Fault extends Exception
     {
         Fault(I18NResourceBundle i18n, String s) {
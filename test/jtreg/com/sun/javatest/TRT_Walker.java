@@ -0,0 +1,288 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.sun.javatest.util.Debug;
+
+/**
+ * Visit the tests below a node of a TestResultTable in parallel, applying
+ * the same filtering as {@link TRT_Iterator}.  Each branch of the tree is
+ * walked by a separate fork/join task, and large directories are further
+ * split into batches of tests, so the visitor will be called from several
+ * threads at once, in no particular order.  The filters are not required
+ * to be thread-safe, so they are only called for one test at a time.
+ */
+class TRT_Walker implements TestResultTable.TreeWalker {
+    /**
+     * Create a walker for the tests below and including the given node.
+     *
+     * @param node The node at which to begin.  May be null, in which case
+     *        no tests will be visited.
+     * @param filters Which filters to apply to the tests found.  May be null.
+     */
+    TRT_Walker(TestResultTable.TreeNode node, TestFilter[] filters) {
+        this.node = node;
+        this.filters = filters;
+    }
+
+    public void walk(Visitor v) {
+        if (node == null)
+            return;
+
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new WalkNode(node, v));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    // --- Statistics info ---
+    public int getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public int getRejectCount() {
+        return rejectCount.get();
+    }
+
+    public void setRecordRejects(boolean state) {
+        // only create the table the first time; users can turn
+        // this feature on and off without losing the statistics
+        if (state && filteredTRs == null)
+            filteredTRs = new Hashtable();
+
+        recordRejects = state;
+    }
+
+    public int[] getResultStats() {
+        int[] copy = new int[resultStats.length()];
+        for (int i = 0; i < copy.length; i++)
+            copy[i] = resultStats.get(i);
+
+        return copy;
+    }
+
+    public Hashtable getFilterStats() {
+        Hashtable t = filteredTRs;
+        return (t == null ? null : new Hashtable(t));
+    }
+
+    public TestFilter[] getFilters() {
+        if (filters == null)
+            return null;
+
+        TestFilter[] copy = new TestFilter[filters.length];
+        System.arraycopy(filters, 0, copy, 0, filters.length);
+        return copy;
+    }
+
+    /**
+     * Run a test through the filters, and pass it to the visitor if it is
+     * accepted.  If the test cannot be evaluated, it is reset in the table
+     * and evaluated once more, as is done by TRT_Iterator.
+     */
+    private void visit(TestResult test, Visitor v) {
+        try {
+            if (wouldAccept(test) >= 0)
+                return;         // rejected
+        }
+        catch (TestResult.Fault f) {
+            TestResultTable trt = node.getEnclosingTable();
+            if (trt == null)
+                return;
+
+            test = trt.resetTest(test);
+            try {
+                if (wouldAccept(test) >= 0)
+                    return;     // rejected
+            }
+            catch (TestResult.Fault f2) {
+                if (debug)
+                    f2.printStackTrace(Debug.getWriter());
+                // give up
+                return;
+            }
+        }
+
+        resultStats.incrementAndGet(test.getStatus().getType());
+        v.visit(test);
+    }
+
+    /**
+     * Run a test through the filters.
+     *
+     * @param tr The test to run through the filter, must not be null
+     * @return The index into filters[] which rejected the test, -1 if it would be accepted.
+     * @throws TestResult.Fault May happen when requesting info from the TestResult,
+     *         probably a reload fault.
+     */
+    private int wouldAccept(TestResult tr) throws TestResult.Fault {
+        if (filters == null || filters.length == 0)
+            return -1;
+
+        processedCount.incrementAndGet();
+
+        TestDescription td = tr.getDescription();
+        TestFilter.Observer fo = (recordRejects ? new FilterObserver(tr) : null);
+
+        synchronized (filterLock) {
+            return wouldAccept(td, fo);
+        }
+    }
+
+    private int wouldAccept(TestDescription td, TestFilter.Observer fo) {
+        for (int i = 0; i < filters.length; i++) {
+            boolean accepted = true;
+            try {
+                if (fo == null)
+                    accepted = filters[i].accepts(td);
+                else
+                    accepted = filters[i].accepts(td, fo);
+            }
+            catch (TestFilter.Fault f) {
+                accepted = true;
+                if (debug)
+                    Debug.println("   -> exception while checking filter: " + f.getMessage());
+            }
+
+            if (!accepted) {
+                rejectCount.incrementAndGet();
+                return i;
+            }
+        }   // for
+
+        // accepted
+        return -1;
+    }
+
+    /**
+     * Visit the tests in a node, and fork a new task for each child node
+     * and for each further batch of tests.
+     */
+    private class WalkNode extends RecursiveAction {
+        WalkNode(TestResultTable.TreeNode node, Visitor v) {
+            this.node = node;
+            this.v = v;
+        }
+
+        protected void compute() {
+            TestResultTable.TreeNode[] nodes = node.getTreeNodes();
+            TestResult[] trs = node.getTestResults();
+            List subtasks = new ArrayList();
+
+            if (nodes != null) {
+                for (int i = 0; i < nodes.length; i++)
+                    subtasks.add(new WalkNode(nodes[i], v));
+            }
+
+            // the first batch of tests is done here, once the other
+            // tasks have been made available to be stolen
+            int n = (trs == null ? 0 : Math.min(trs.length, BATCH_SIZE));
+            if (trs != null) {
+                for (int lo = n; lo < trs.length; lo += BATCH_SIZE)
+                    subtasks.add(new WalkTests(trs, lo, Math.min(trs.length, lo + BATCH_SIZE), v));
+            }
+
+            for (int i = 0; i < subtasks.size(); i++)
+                ((RecursiveAction)(subtasks.get(i))).fork();
+
+            for (int i = 0; i < n; i++)
+                visit(trs[i], v);
+
+            for (int i = subtasks.size() - 1; i >= 0; i--)
+                ((RecursiveAction)(subtasks.get(i))).join();
+        }
+
+        private final TestResultTable.TreeNode node;
+        private final Visitor v;
+    }
+
+    /**
+     * Visit a batch of the tests in a node.
+     */
+    private class WalkTests extends RecursiveAction {
+        WalkTests(TestResult[] trs, int from, int to, Visitor v) {
+            this.trs = trs;
+            this.from = from;
+            this.to = to;
+            this.v = v;
+        }
+
+        protected void compute() {
+            for (int i = from; i < to; i++)
+                visit(trs[i], v);
+        }
+
+        private final TestResult[] trs;
+        private final int from;
+        private final int to;
+        private final Visitor v;
+    }
+
+    /**
+     * Records the filter which rejected a specific test.  A new observer is
+     * used for each test, since several tests are evaluated at once.
+     */
+    private class FilterObserver implements TestFilter.Observer {
+        FilterObserver(TestResult tr) {
+            this.tr = tr;
+        }
+
+        public void rejected(TestDescription d, TestFilter rejector) {
+            Hashtable t = filteredTRs;
+            if (t != null)
+                t.put(tr, rejector);
+        }
+
+        private final TestResult tr;
+    }
+
+    private final TestResultTable.TreeNode node;
+    private final TestFilter[] filters;
+    private final Object filterLock = new Object();
+
+    private final AtomicInteger processedCount = new AtomicInteger();
+    private final AtomicIntegerArray resultStats = new AtomicIntegerArray(Status.NUM_STATES);
+
+    // filter rejection info
+    private final AtomicInteger rejectCount = new AtomicInteger();
+    private volatile boolean recordRejects;
+    private volatile Hashtable filteredTRs;     // key==TestResult  value=TestFilter
+
+    private static final int BATCH_SIZE = 256;
+    private boolean debug = Debug.getBoolean(TRT_Walker.class);
+}
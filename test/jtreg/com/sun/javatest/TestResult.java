@@ -26,17 +26,29 @@
  */
 package com.sun.javatest;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.Writer;
-import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -44,10 +56,12 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Vector;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import com.sun.javatest.util.BackupPolicy;
 import com.sun.javatest.util.I18NResourceBundle;
@@ -562,6 +576,22 @@ public class TestResult {
             return null;
         }
 
+        private File getSpillFile(String name) {
+            if (!spillOutput || spillPrefix == null)
+                return null;
+            return new File(spillPrefix.getPath() + "." + toFileName(title)
+                            + "." + toFileName(name) + SPILL_EXTN);
+        }
+
+        private String toFileName(String s) {
+            StringBuffer sb = new StringBuffer(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                sb.append(Character.isLetterOrDigit(c) || c == '-' ? c : '_');
+            }
+            return sb.toString();
+        }
+
         private OutputBuffer[] buffers = new OutputBuffer[0];
         private String title;
         private Status result;
@@ -694,6 +724,15 @@ public class TestResult {
             private final String output;
         }
 
+        /**
+         * An output buffer which keeps the beginning and the end of the
+         * output written to it, up to javatest.maxOutputSize characters.
+         * Once the limit has been reached, the beginning of the output is
+         * kept in <code>output</code>, followed by a message, and the end
+         * of the output is kept in a fixed-size ring buffer, so that each
+         * further write takes time proportional to the amount written.
+         * If requested, the complete output is also written to a file.
+         */
         private class WritableOutputBuffer extends Writer implements OutputBuffer {
             WritableOutputBuffer(String name) {
                 super(TestResult.this);
@@ -710,7 +749,15 @@ public class TestResult {
             }
 
             public String getOutput() {
-                return new String(output);
+                if (tail == null)
+                    return new String(output);
+
+                StringBuffer sb = new StringBuffer(output.length() + tailSize);
+                sb.append(output);
+                int n = Math.min(tailSize, tail.length - tailStart);
+                sb.append(tail, tailStart, n);
+                sb.append(tail, 0, tailSize - n);
+                return sb.toString();
             }
 
             public PrintWriter getPrintWriter() {
@@ -721,45 +768,26 @@ public class TestResult {
                 if (output == null)
                     throw new IOException("stream has been closed");
 
-                int end = output.length();
-                output.append(buf, offset, len);
+                int end = output.length() + tailSize;
+                if (tail == null)
+                    output.append(buf, offset, len);
+                else
+                    appendTail(buf, offset, len);
                 // want to avoid creating the string buf(offset..len)
                 // since likely case is no observers
                 notifyUpdatedOutput(Section.this, name, end, end, buf, offset, len);
 
-                if (output.length() > maxOutputSize) {
-                    int overflowEnd = maxOutputSize*2/3;
-                    if (overflowed) {
-                        // output.delete(overflowStart, overflowEnd);
-                        // JDK 1.1--start
-                        String s = output.toString();
-                        output = new StringBuffer(s.substring(0, overflowStart) + s.substring(overflowEnd));
-                        // JDK 1.1--end
-                        notifyUpdatedOutput(Section.this, name, overflowStart, overflowEnd, "");
-                    }
-                    else {
-                        String OVERFLOW_MESSAGE =
-                            "\n\n...\n"
-                            + "Output overflow:\n"
-                            + "JT Harness has limited the test output to the text to that\n"
-                            + "at the beginning and the end, so that you can see how the\n"
-                            + "test began, and how it completed.\n"
-                            + "\n"
-                            + "If you need to see more of the output from the test,\n"
-                            + "set the system property javatest.maxOutputSize to a higher\n"
-                            + "value. The current value is " + maxOutputSize
-                            + "\n...\n\n";
-                        overflowStart = maxOutputSize/3;
-                        //output.replace(overflowStart, maxOutputSize*2/3, OVERFLOW_MESSAGE);
-                        // JDK 1.1--start
-                        String s = output.toString();
-                        output = new StringBuffer(s.substring(0, overflowStart) + OVERFLOW_MESSAGE + s.substring(overflowEnd));
-                        // JDK 1.1--end
-                        notifyUpdatedOutput(Section.this, name, overflowStart, overflowEnd, OVERFLOW_MESSAGE);
-                        overflowStart += OVERFLOW_MESSAGE.length();
-                        overflowed = true;
+                if (tail != null) {
+                    if (spill != null)
+                        spill(buf, offset, len);
+                    if (discarded > 0) {
+                        int headEnd = output.length();
+                        notifyUpdatedOutput(Section.this, name, headEnd, headEnd + discarded, "");
+                        discarded = 0;
                     }
                 }
+                else if (output.length() > maxOutputSize)
+                    overflow();
             }
 
             public void flush() {
@@ -767,15 +795,114 @@ public class TestResult {
             }
 
             public void close() {
-                makeOutputImmutable(this, name, new String(output));
+                makeOutputImmutable(this, name, getOutput());
                 notifyCompletedOutput(Section.this, name);
+                closeSpill();
+            }
+
+            /**
+             * Called the first time the output exceeds maxOutputSize.
+             * The beginning of the output is kept, followed by a message,
+             * and as much of the end of the output as will fit in the
+             * ring buffer.
+             */
+            private void overflow() {
+                int headSize = maxOutputSize/3;
+                tail = new char[Math.max(1, maxOutputSize - headSize)];
+                int length = output.length();
+                int tailPos = length - tail.length;
+
+                File spillFile = getSpillFile(name);
+                if (spillFile != null) {
+                    try {
+                        spill = new FileWriter(spillFile);
+                        spill.write(output.toString());
+                        addSpillFile(spillFile);
+                    }
+                    catch (IOException e) {
+                        closeSpill();
+                        spillFile = null;
+                    }
+                }
+
+                String OVERFLOW_MESSAGE =
+                    "\n\n...\n"
+                    + "Output overflow:\n"
+                    + "JT Harness has limited the test output to the text to that\n"
+                    + "at the beginning and the end, so that you can see how the\n"
+                    + "test began, and how it completed.\n"
+                    + "\n"
+                    + (spillFile == null ? "" :
+                       "The complete output has been written to\n"
+                       + spillFile + "\n\n")
+                    + "If you need to see more of the output from the test,\n"
+                    + "set the system property javatest.maxOutputSize to a higher\n"
+                    + "value. The current value is " + maxOutputSize
+                    + "\n...\n\n";
+
+                output.getChars(tailPos, length, tail, 0);
+                tailStart = 0;
+                tailSize = tail.length;
+                output.setLength(headSize);
+                output.append(OVERFLOW_MESSAGE);
+                notifyUpdatedOutput(Section.this, name, headSize, tailPos, OVERFLOW_MESSAGE);
+            }
+
+            /**
+             * Append text to the ring buffer, discarding the oldest text
+             * as necessary to make room for it. The number of characters
+             * discarded is added to <code>discarded</code>.
+             */
+            private void appendTail(char[] buf, int offset, int len) {
+                if (len >= tail.length) {
+                    discarded += tailSize + len - tail.length;
+                    System.arraycopy(buf, offset + len - tail.length, tail, 0, tail.length);
+                    tailStart = 0;
+                    tailSize = tail.length;
+                    return;
+                }
+
+                int excess = tailSize + len - tail.length;
+                if (excess > 0) {
+                    tailStart = (tailStart + excess) % tail.length;
+                    tailSize -= excess;
+                    discarded += excess;
+                }
+
+                int pos = (tailStart + tailSize) % tail.length;
+                int n = Math.min(len, tail.length - pos);
+                System.arraycopy(buf, offset, tail, pos, n);
+                System.arraycopy(buf, offset + n, tail, 0, len - n);
+                tailSize += len;
+            }
+
+            private void spill(char[] buf, int offset, int len) {
+                try {
+                    spill.write(buf, offset, len);
+                }
+                catch (IOException e) {
+                    closeSpill();
+                }
+            }
+
+            private void closeSpill() {
+                try {
+                    if (spill != null)
+                        spill.close();
+                }
+                catch (IOException ignore) {
+                }
+                spill = null;
             }
 
-            private boolean overflowed;
-            private int overflowStart;
             private final String name;
-            private /*final*/ StringBuffer output; // can't easily be final in JDK 1.1 because need to reassign to it
+            private final StringBuffer output; // all the output, or the beginning of it if it has overflowed
             private final PrintWriter pw;
+            private char[] tail;               // the end of the output, once it has overflowed
+            private int tailStart;
+            private int tailSize;
+            private int discarded;
+            private Writer spill;
         }
     }
 
@@ -794,6 +921,317 @@ public class TestResult {
         PrintWriter getPrintWriter();
     }
 
+    /**
+     * The positions of the parts of a .jtr file, written as the last line
+     * of the file, so that the parts can be read individually.
+     */
+    private static class ResultIndex {
+        static ResultIndex parse(String s) {
+            int i = s.lastIndexOf(JTR_V2_INDEX);
+            if (i == -1)
+                return null;
+            String line = s.substring(i + JTR_V2_INDEX.length()).trim();
+            if (line.indexOf('\n') != -1)
+                return null;   // not the last line
+
+            ResultIndex ri = new ResultIndex();
+            try {
+                String[] fields = StringArray.split(line);
+                for (int f = 0; f < fields.length; f++) {
+                    int eq = fields[f].indexOf('=');
+                    if (eq == -1)
+                        return null;
+                    String key = fields[f].substring(0, eq);
+                    String value = fields[f].substring(eq + 1);
+                    if (key.equals("desc"))
+                        ri.desc = Long.parseLong(value);
+                    else if (key.equals("env"))
+                        ri.env = Long.parseLong(value);
+                    else if (key.equals("props"))
+                        ri.props = Long.parseLong(value);
+                    else if (key.equals("sections")) {
+                        String[] v = (value.length() == 0 ? new String[0] : value.split(","));
+                        ri.sections = new long[v.length];
+                        for (int j = 0; j < v.length; j++)
+                            ri.sections[j] = Long.parseLong(v[j]);
+                    }
+                }
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+
+            return (ri.desc < 0 || ri.props < 0 || ri.sections == null ? null : ri);
+        }
+
+        public String toString() {
+            StringBuffer sb = new StringBuffer();
+            sb.append("desc=").append(desc);
+            sb.append(" env=").append(env);
+            sb.append(" props=").append(props);
+            sb.append(" sections=");
+            for (int i = 0; i < sections.length; i++) {
+                if (i > 0)
+                    sb.append(',');
+                sb.append(sections[i]);
+            }
+            return sb.toString();
+        }
+
+        long desc = -1;
+        long env = -1;
+        long props = -1;
+        long[] sections;
+    }
+
+    /**
+     * A writer which counts the characters written through it,
+     * and computes their checksum. If the writer is encoding the characters
+     * to a {@link CountingOutputStream}, the count is the number of bytes
+     * written to that stream.
+     */
+    private static class CountingWriter extends FilterWriter {
+        CountingWriter(Writer out, CountingOutputStream bytes) {
+            super(out);
+            this.bytes = bytes;
+        }
+
+        public void write(int c) throws IOException {
+            out.write(c);
+            checksum.update((char) c);
+            count++;
+        }
+
+        public void write(char[] buf, int off, int len) throws IOException {
+            out.write(buf, off, len);
+            checksum.update(buf, off, len);
+            count += len;
+        }
+
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            checksum.update(str, off, len);
+            count += len;
+        }
+
+        long getCount() throws IOException {
+            if (bytes == null)
+                return count;
+
+            // encode any characters held by the underlying writer
+            out.flush();
+            return bytes.getCount();
+        }
+
+        long getChecksum() {
+            return checksum.getValue();
+        }
+
+        private long count;
+        private final CountingOutputStream bytes;
+        private final CharChecksum checksum = new CharChecksum();
+    }
+
+    /**
+     * An output stream which counts the bytes written through it.
+     * Flushing the stream does not flush the underlying stream, so that
+     * the count can be taken without forcing the bytes to be written;
+     * the underlying stream is flushed when this stream is closed.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        public void write(byte[] buf, int off, int len) throws IOException {
+            out.write(buf, off, len);
+            count += len;
+        }
+
+        public void flush() {
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        private long count;
+    }
+
+    /**
+     * A reader which computes the checksum of the characters read from it,
+     * for comparison with the checksum computed by CountingWriter.
+     * The characters are buffered here rather than by BufferedReader, so
+     * that the line terminators actually read by readLine are included in
+     * the checksum, and a final line without a terminator is included
+     * without one. Marks are not supported.
+     */
+    private static class ChecksumReader extends BufferedReader {
+        ChecksumReader(Reader in) {
+            super(in, 1);
+            this.in = in;
+        }
+
+        public int read() throws IOException {
+            if (pos == end && !fill())
+                return -1;
+            char c = buf[pos++];
+            checksum.update(c);
+            return c;
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (pos == end && !fill())
+                return -1;
+            int n = Math.min(len, end - pos);
+            System.arraycopy(buf, pos, cbuf, off, n);
+            checksum.update(buf, pos, n);
+            pos += n;
+            return n;
+        }
+
+        /**
+         * Read a line, terminated by '\n', '\r' or "\r\n", as for
+         * BufferedReader.readLine.
+         */
+        public String readLine() throws IOException {
+            StringBuffer sb = null;
+            while (true) {
+                if (pos == end && !fill())
+                    return (sb == null ? null : sb.toString());
+
+                int start = pos;
+                while (pos < end && buf[pos] != '\n' && buf[pos] != '\r')
+                    pos++;
+                checksum.update(buf, start, pos - start);
+
+                if (pos == end) {
+                    // the line continues in the next buffer
+                    if (sb == null)
+                        sb = new StringBuffer(pos - start + 80);
+                    sb.append(buf, start, pos - start);
+                    continue;
+                }
+
+                String line;
+                if (sb == null)
+                    line = new String(buf, start, pos - start);
+                else
+                    line = sb.append(buf, start, pos - start).toString();
+
+                char c = buf[pos++];
+                checksum.update(c);
+                if (c == '\r' && (pos < end || fill()) && buf[pos] == '\n') {
+                    pos++;
+                    checksum.update('\n');
+                }
+                return line;
+            }
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && read() != -1)
+                skipped++;
+            return skipped;
+        }
+
+        public boolean ready() throws IOException {
+            return (pos < end || in.ready());
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+
+        public void mark(int readAheadLimit) throws IOException {
+            throw new IOException("mark not supported");
+        }
+
+        public void reset() throws IOException {
+            throw new IOException("reset not supported");
+        }
+
+        long getChecksum() {
+            return checksum.getValue();
+        }
+
+        private boolean fill() throws IOException {
+            int n;
+            do {
+                n = in.read(buf, 0, buf.length);
+            } while (n == 0);
+            if (n < 0)
+                return false;
+            pos = 0;
+            end = n;
+            return true;
+        }
+
+        private final Reader in;
+        private final char[] buf = new char[8192];
+        private int pos;
+        private int end;
+        private final CharChecksum checksum = new CharChecksum();
+    }
+
+    /**
+     * A CRC-32 checksum of a sequence of characters, computed over their
+     * UTF-8 encoding. Carriage returns are ignored, so that the checksum
+     * does not depend on the line separator used when the characters
+     * were written.
+     */
+    private static class CharChecksum {
+        void update(char c) {
+            if (count + 3 > buf.length)
+                flush();
+            if (c < 0x80) {
+                if (c != '\r')
+                    buf[count++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                buf[count++] = (byte) (0xC0 | (c >> 6));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else {
+                buf[count++] = (byte) (0xE0 | (c >> 12));
+                buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        void update(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++)
+                update(cbuf[i]);
+        }
+
+        void update(String s, int off, int len) {
+            for (int i = off; i < off + len; i++)
+                update(s.charAt(i));
+        }
+
+        long getValue() {
+            flush();
+            return crc.getValue();
+        }
+
+        private void flush() {
+            crc.update(buf, 0, count);
+            count = 0;
+        }
+
+        private final CRC32 crc = new CRC32();
+        private final byte[] buf = new byte[4096];
+        private int count;
+    }
+
 
 
 
@@ -853,6 +1291,32 @@ public class TestResult {
         execStatus = Status.parse(PropertyArray.get(props, EXEC_STATUS));
     }
 
+    /**
+     * Reconstruct the results of a previously run test, which may be
+     * stored in a result log rather than in its own file.  This is for use
+     * when the work directory cannot be opened, such as when the test
+     * suite is not available.
+     *
+     * @param file The file that the results would be stored in, in the
+     *        work directory containing the result log.
+     * @param log  The result log for the work directory.
+     * @throws     TestResult.ReloadFault if there is a problem recreating the results
+     * @throws     TestResult.ResultFileNotFoundFault if the results cannot be found
+     *                  in the log or in the given file
+     * @see ResultLog
+     */
+    public TestResult(File file, ResultLog log)
+        throws ResultFileNotFoundFault, ReloadFault
+    {
+        resultsFile = file;
+        resultLog = log;
+        reload();
+
+        testURL = desc.getRootRelativeURL();
+
+        execStatus = Status.parse(PropertyArray.get(props, EXEC_STATUS));
+    }
+
     /**
      * Reconstruct the results of a previously run test.
      *
@@ -866,6 +1330,7 @@ public class TestResult {
     public TestResult(WorkDirectory workDir, String workRelativePath) throws Fault {
         //resultsFile = workDir.getFile(workRelativePath.replace('/', File.separatorChar));
         resultsFile = workDir.getFile(workRelativePath);
+        resultLog = workDir.getResultLog();
         reload();
 
         testURL = desc.getRootRelativeURL();
@@ -1007,6 +1472,113 @@ public class TestResult {
         notifyUpdatedProperty(name, value);
     }
 
+    /**
+     * Set the location for the complete output of any output streams
+     * which exceed the limit given by the system property
+     * <code>javatest.maxOutputSize</code>. The complete output is only
+     * kept if the system property <code>javatest.spillOutput</code>
+     * is set to true; each stream is written to a file whose name is
+     * given by the prefix, followed by the section title, the stream name,
+     * and <code>.log</code>, separated by '.'. Any characters in the title
+     * and stream name other than letters, digits and '-' are replaced by '_'.
+     * The names of the files are recorded in the property
+     * {@link #SPILLED_OUTPUT}; if the complete output is being kept,
+     * the files named by the results of an earlier run of the test are deleted.
+     * @param prefix the prefix for the names of the files in which to
+     * write the complete output of any streams which overflow
+     * @param previous the results of an earlier run of the test, or null
+     * @see #deleteSpilledOutput
+     */
+    synchronized void setSpillPrefix(File prefix, TestResult previous) {
+        spillPrefix = prefix;
+
+        if (!spillOutput || previous == null)
+            return;
+
+        String names;
+        try {
+            names = previous.getProperty(SPILLED_OUTPUT);
+        }
+        catch (Fault e) {
+            names = null;
+        }
+        if (names == null)
+            return;
+
+        File dir = prefix.getParentFile();
+        String stem = prefix.getName() + ".";
+        String[] files = StringArray.split(names);
+        for (int i = 0; i < files.length; i++) {
+            // only delete files which could have been written for this prefix
+            if (files[i].startsWith(stem) && files[i].indexOf(File.separatorChar) == -1)
+                new File(dir, files[i]).delete();
+        }
+    }
+
+    /**
+     * Delete any files that have been written with the complete output
+     * of streams which overflowed, such as when the test has passed
+     * and the output is no longer of interest.
+     * @see #setSpillPrefix
+     */
+    synchronized void deleteSpilledOutput() {
+        for (int i = 0; i < spillFiles.length; i++)
+            spillFiles[i].delete();
+        spillFiles = new File[0];
+        if (isMutable())
+            props = PropertyArray.remove(props, SPILLED_OUTPUT);
+    }
+
+    /**
+     * Check whether the complete output of streams which overflow is kept.
+     * @return true if the complete output of streams which overflow is kept
+     * @see #setSpillPrefix
+     */
+    static boolean isSpillOutputEnabled() {
+        return spillOutput;
+    }
+
+    /**
+     * Delete all the files with the complete output of streams which
+     * overflowed that have been written for a given prefix, including
+     * those written by earlier runs of the test.
+     * @param prefix the prefix for the names of the files
+     * @return false if any of the files could not be deleted, and true otherwise
+     * @see #setSpillPrefix
+     */
+    static boolean deleteSpilledOutput(File prefix) {
+        File dir = prefix.getParentFile();
+        String[] names = (dir == null ? null : dir.list());
+        if (names == null)
+            return true;
+
+        boolean result = true;
+        String stem = prefix.getName() + ".";
+        for (int i = 0; i < names.length; i++) {
+            String n = names[i];
+            if (n.startsWith(stem) && n.endsWith(SPILL_EXTN)) {
+                // <stem>.<section>.<stream>.log, where the section and
+                // stream names do not contain '.'
+                String s = n.substring(stem.length(), n.length() - SPILL_EXTN.length());
+                int dot = s.indexOf('.');
+                if (dot > 0 && dot < s.length() - 1 && s.indexOf('.', dot + 1) == -1)
+                    result &= new File(dir, n).delete();
+            }
+        }
+        return result;
+    }
+
+    private synchronized void addSpillFile(File f) {
+        spillFiles = (File[])(DynamicArray.append(spillFiles, f));
+
+        if (isMutable()) {
+            String[] names = new String[spillFiles.length];
+            for (int i = 0; i < names.length; i++)
+                names[i] = spillFiles[i].getName();
+            putProperty(SPILLED_OUTPUT, StringArray.join(names));
+        }
+    }
+
     /**
      * Reconstruct the results of a previously run test.
      *
@@ -1023,11 +1595,13 @@ public class TestResult {
 
         try {
             resultsFile = workDir.getFile(getWorkRelativePath());
+            resultLog = workDir.getResultLog();
+            resetResultIndex();
             props = null;
             sections = null;
             execStatus = null;
 
-            reload(new FileReader(resultsFile));
+            reload(openResults());
 
             // this next line is dubious since the execStatus should have
             // been set during the reload
@@ -1123,7 +1697,9 @@ public class TestResult {
      * @return true if the result file for this object can be read
      */
     public boolean isReloadable() {
-        return (resultsFile != null && resultsFile.canRead());
+        return (resultsFile != null
+                && ((resultLog != null && resultLog.contains(resultsFile))
+                    || resultsFile.canRead()));
     }
 
     /**
@@ -1160,8 +1736,14 @@ public class TestResult {
     public synchronized TestDescription getDescription()
                 throws Fault {
         if (desc == null) {
-            // reconstitute description (probably from file)
-            reload();
+            // reconstitute description (probably from file), reading just
+            // the description if the results have an index
+            ResultIndex ri = getResultIndex();
+            String[] tdProps = (ri == null ? null : reloadProperties(ri.desc, JTR_V2_TESTDESC));
+            if (tdProps != null)
+                desc = TestDescription.load(tdProps);
+            else
+                reload();
         }
         return desc;
     }
@@ -1274,6 +1856,14 @@ public class TestResult {
      * @return the keys of the properties that this object has stored
      */
     public synchronized Enumeration getPropertyNames() {
+        if (props == null) {
+            try {
+                loadProperties();
+            }
+            catch (Fault f) {
+                return PropertyArray.enumerate(emptyStringArray);
+            }
+        }
         return PropertyArray.enumerate(props);
     }
 
@@ -1289,14 +1879,26 @@ public class TestResult {
     public synchronized String getProperty(String name)
             throws Fault {
         if (props == null) {
-            // reconstitute properties
             // this may result in a Fault, which is okay
-            reload();
+            loadProperties();
         }
 
         return PropertyArray.get(props, name);
     }
 
+    /**
+     * Reconstitute the properties, reading just the properties
+     * if the results have an index.
+     */
+    private void loadProperties() throws Fault {
+        ResultIndex ri = getResultIndex();
+        String[] p = (ri == null ? null : reloadProperties(ri.props, JTR_V2_RESPROPS));
+        if (p != null)
+            props = p;
+        else
+            reload();
+    }
+
     /**
      * Get a copy of the environment that this object has stored.
      * @return a copy of the environment that this object has stored
@@ -1306,9 +1908,17 @@ public class TestResult {
      */
     public synchronized Map getEnvironment() throws Fault {
         if (env == null) {
-            // reconstitute environment
+            // reconstitute environment, reading just the environment
+            // if the results have an index;
             // this may result in a Fault, which is okay
-            reload();
+            ResultIndex ri = getResultIndex();
+            String[] e = null;
+            if (ri != null)
+                e = (ri.env < 0 ? new String[0] : reloadProperties(ri.env, JTR_V2_ENVIRONMENT));
+            if (e != null)
+                env = e;
+            else
+                reload();
         }
         return PropertyArray.getProperties(env);
     }
@@ -1371,11 +1981,21 @@ public class TestResult {
         if (sections != null) {
             return sections.length;
         }
-        else if (PropertyArray.get(props, SECTIONS) != null) {
+
+        if (props == null) {
+            try {
+                loadProperties();
+            }
+            catch (Fault f) {
+                return 0;
+            }
+        }
+
+        if (PropertyArray.get(props, SECTIONS) != null) {
             return StringArray.split(PropertyArray.get(props, SECTIONS)).length;
         }
         else {
-            // hum, test props are never discarded, so we have no sections
+            // hum, we have no sections
             return 0;
         }
     }
@@ -1394,6 +2014,16 @@ public class TestResult {
         Section target;
 
         if (sections == null && execStatus != inProgress) {
+            // if the results have an index, read just the section required
+            ResultIndex ri = getResultIndex();
+            if (ri != null) {
+                if (index >= ri.sections.length)
+                    return null;
+                Section s = reloadSection(ri, index);
+                if (s != null)
+                    return s;
+            }
+
             // try to reload from file
             try {
                 reload();
@@ -1405,6 +2035,10 @@ public class TestResult {
                 throw new ReloadFault(i18n, "rslt.badFile",  f.getMessage());
             }
         }
+        else if (resultsFile != null && !isMutable()) {
+            // the sections are in use, so keep them in memory a while longer
+            addToShrinkList();
+        }
 
         if (index >= sections.length) {
             target = null;
@@ -1427,7 +2061,7 @@ public class TestResult {
     public synchronized String[] getSectionTitles() {
         if (props == null) {
             try {
-                reload();
+                loadProperties();
             }
             catch (Fault f) {
                 // should this maybe be a JavaTestError?
@@ -1473,6 +2107,10 @@ public class TestResult {
 
     /**
      * Writes the TestResult into a version 2 jtr file.
+     * If the system property <code>javatest.compressResults</code> is set
+     * to <code>true</code>, the file is compressed with gzip; compressed
+     * files have the same name as uncompressed files, and are recognized
+     * when they are read.
      *
      * @param workDir The work directory in which to write the results
      * @param backupPolicy a policy object defining what to do if a file
@@ -1488,12 +2126,28 @@ public class TestResult {
         if (isMutable())
             throw new IllegalStateException("This TestResult is still mutable - set the status!");
 
-        // could attempt a reload() I suppose
+        // reload any data that was discarded when this object was shrunk
+        if (isShrunk() && isReloadable()) {
+            try {
+                reload();
+            }
+            catch (Fault f) {
+                throw new IOException(f.getMessage());
+            }
+        }
+
         if (props == null)
             props = emptyStringArray;
 
         String wrp = getWorkRelativePath(desc).replace('/', File.separatorChar);
         resultsFile = workDir.getFile(wrp);
+        resultLog = workDir.getResultLog();
+        resetResultIndex();
+
+        if (resultLog != null) {
+            writeResults(resultLog);
+            return;
+        }
 
         File resultsDir = resultsFile.getParentFile();
         resultsDir.mkdirs(); // ensure directory created for .jtr file
@@ -1531,146 +2185,207 @@ public class TestResult {
     private void writeResults(File tempFile, BackupPolicy backupPolicy)
         throws IOException
     {
-        FileWriter out;
+        OutputStream out;
         try {
-            out = new FileWriter(tempFile);
+            out = createResultFile(tempFile);
+        }
+        catch (IOException e) {
+            execStatus = Status.error("Problem writing result file for test: " + getTestName());
+            resultsFile = null; // file not successfully written after all
+            throw e;
+        }
+
+        try {
+            writeResults(out);
+            out.close();
+        }   // try
+        catch (IOException e) {
+            // This exception could be raised when trying to create the directory
+            // for the test results; opening the results file, or closing it.
+            execStatus = Status.error("Write to temp. JTR file failed (old JTR intact): " +
+                                        tempFile.getPath());
+            resultsFile = null; // file not successfully written after all
+            throw e;
+        }   // catch
+
+        try {
+            backupPolicy.backupAndRename(tempFile, resultsFile);
+
+            // now that it has been successfully written out, make the object
+            // a candidate for shrinking
+            addToShrinkList();
+        }   // try
+        catch (IOException e) {
+            // This exception could be raised when trying to create the directory
+            // for the test results; opening the results file, or closing it.
+            execStatus = Status.error("Problem writing result file: " +
+                                        resultsFile.getPath());
+            resultsFile = null; // file not successfully written after all
+            throw e;
+        }   // catch
+    }
+
+    /**
+     * Write the results to a result log. Backups are not kept for results
+     * in a result log.
+     */
+    private void writeResults(ResultLog log)
+        throws IOException
+    {
+        try {
+            // the results are encoded as for a .jtr file, so that the offsets
+            // in the index are the same if they are exported
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeResults(out);
+            log.put(resultsFile, new String(out.toByteArray(), resultCharset));
+
+            // now that it has been successfully written out, make the object
+            // a candidate for shrinking
+            addToShrinkList();
         }
         catch (IOException e) {
-            execStatus = Status.error("Problem writing result file for test: " + getTestName());
-            resultsFile = null; // file not successfully written after all
+            execStatus = Status.error("Problem writing result log for test: " + getTestName());
+            resultsFile = null; // results not successfully written after all
             throw e;
         }
+    }
 
-        try {
-            // redundant, is done in setResult
-            // needed though if setResult isn't being called
-            props = PropertyArray.put(props, EXEC_STATUS, execStatus.toString());
-
-            // file header
-            out.write(JTR_V2_HEADER);
-            out.write(lineSeparator);
-
-            // date and time
-            out.write("#" + (new Date()).toString());
-            out.write(lineSeparator);
-
-            // checksum header and data
+    /**
+     * Write the results in .jtr format, encoded with the encoding for results.
+     * The stream is flushed but not closed.
+     */
+    private void writeResults(OutputStream os)
+        throws IOException
+    {
+        // count the bytes written, for the index at the end of the file
+        CountingOutputStream bytes = new CountingOutputStream(os);
+        CountingWriter cout = new CountingWriter(new OutputStreamWriter(bytes, resultCharset), bytes);
+        Writer out = cout;
+        ResultIndex index = new ResultIndex();
+
+        // redundant, is done in setResult
+        // needed though if setResult isn't being called
+        props = PropertyArray.put(props, EXEC_STATUS, execStatus.toString());
+
+        // file header
+        out.write(JTR_V2_HEADER);
+        out.write(lineSeparator);
+
+        // date and time
+        out.write("#" + (new Date()).toString());
+        out.write(lineSeparator);
+
+        // checksum header and data; the original checksum is only written if
+        // requested, since the CRC-32 checksum at the end of the file replaces it
+        if (legacyChecksum) {
             out.write(JTR_V2_CHECKSUM);
             out.write(Long.toHexString(computeChecksum()));
             out.write(lineSeparator);
+        }
+
+        if (debug) {  // debugging code
+            out.write("# debug: test desc checksum: ");
+            out.write(Long.toHexString(computeChecksum(desc)));
+            out.write(lineSeparator);
 
-            if (debug) {  // debugging code
-                out.write("# debug: test desc checksum: ");
-                out.write(Long.toHexString(computeChecksum(desc)));
+            for (Iterator iter = desc.getParameterKeys(); iter.hasNext(); ) {
+                // don't rely on enumeration in a particular order
+                // so simply add the checksum products together
+                String KEY = (String) (iter.next());
+                out.write("# debug: test desc checksum key " + KEY + ": ");
+                out.write(Long.toHexString(computeChecksum(KEY) * computeChecksum(desc.getParameter(KEY))));
                 out.write(lineSeparator);
+            }
 
-                for (Iterator iter = desc.getParameterKeys(); iter.hasNext(); ) {
-                    // don't rely on enumeration in a particular order
-                    // so simply add the checksum products together
-                    String KEY = (String) (iter.next());
-                    out.write("# debug: test desc checksum key " + KEY + ": ");
-                    out.write(Long.toHexString(computeChecksum(KEY) * computeChecksum(desc.getParameter(KEY))));
-                    out.write(lineSeparator);
-                }
+            out.write("# debug: test env checksum: ");
+            if (env == null)
+                out.write("null");
+            else
+                out.write(Long.toHexString(computeChecksum(env)));
+            out.write(lineSeparator);
 
-                out.write("# debug: test env checksum: ");
-                if (env == null)
-                    out.write("null");
-                else
-                    out.write(Long.toHexString(computeChecksum(env)));
-                out.write(lineSeparator);
+            out.write("# debug: test props checksum: ");
+            out.write(Long.toHexString(computeChecksum(props)));
+            out.write(lineSeparator);
 
-                out.write("# debug: test props checksum: ");
-                out.write(Long.toHexString(computeChecksum(props)));
-                out.write(lineSeparator);
+            out.write("# debug: test sections checksum: ");
+            out.write(Long.toHexString(computeChecksum(sections)));
+            out.write(lineSeparator);
 
-                out.write("# debug: test sections checksum: ");
-                out.write(Long.toHexString(computeChecksum(sections)));
+            for (int I = 0; I < sections.length; I++) {
+                out.write("# debug: test section[" + I + "] checksum: ");
+                out.write(Long.toHexString(computeChecksum(sections[I])));
                 out.write(lineSeparator);
 
-                for (int I = 0; I < sections.length; I++) {
-                    out.write("# debug: test section[" + I + "] checksum: ");
-                    out.write(Long.toHexString(computeChecksum(sections[I])));
+                String[] NAMES = sections[I].getOutputNames();
+                for (int J = 0; J < NAMES.length; J++) {
+                    out.write("# debug: test section[" + I + "] name=" + NAMES[J] + " checksum: ");
+                    out.write(Long.toHexString(computeChecksum(NAMES[J])));
                     out.write(lineSeparator);
 
-                    String[] NAMES = sections[I].getOutputNames();
-                    for (int J = 0; J < NAMES.length; J++) {
-                        out.write("# debug: test section[" + I + "] name=" + NAMES[J] + " checksum: ");
-                        out.write(Long.toHexString(computeChecksum(NAMES[J])));
-                        out.write(lineSeparator);
-
-                        out.write("# debug: test section[" + I + "] name=" + NAMES[J] + " output checksum: ");
-                        out.write(Long.toHexString(computeChecksum(sections[I].getOutput(NAMES[J]))));
-                        out.write(lineSeparator);
-                    }
+                    out.write("# debug: test section[" + I + "] name=" + NAMES[J] + " output checksum: ");
+                    out.write(Long.toHexString(computeChecksum(sections[I].getOutput(NAMES[J]))));
+                    out.write(lineSeparator);
                 }
             }
+        }
 
-            // description header and data
-            out.write(JTR_V2_TESTDESC);
-            out.write(lineSeparator);
-
-            Properties tdProps = new Properties();
-            desc.save(tdProps);
-            PropertyArray.save(PropertyArray.getArray(tdProps), out);
-            out.write(lineSeparator);
+        // description header and data
+        index.desc = cout.getCount();
+        out.write(JTR_V2_TESTDESC);
+        out.write(lineSeparator);
 
-            // test environment header and data
-            if (env != null) {
-                out.write(JTR_V2_ENVIRONMENT);
-                out.write(lineSeparator);
-                PropertyArray.save(env, out);
-                out.write(lineSeparator);
-            }
+        Properties tdProps = new Properties();
+        desc.save(tdProps);
+        PropertyArray.save(PropertyArray.getArray(tdProps), out);
+        out.write(lineSeparator);
 
-            // test result props header and data
-            out.write(JTR_V2_RESPROPS);
+        // test environment header and data
+        if (env != null) {
+            index.env = cout.getCount();
+            out.write(JTR_V2_ENVIRONMENT);
             out.write(lineSeparator);
-            PropertyArray.save(props, out);
+            PropertyArray.save(env, out);
             out.write(lineSeparator);
+        }
 
-            // get sections into memory
-            // I hope the out stream is not the same as the resultFile!
-            if (sections == null) {
-                throw new JavaTestError("Cannot write test result - it contains no sections.");
-            }
+        // test result props header and data
+        index.props = cout.getCount();
+        out.write(JTR_V2_RESPROPS);
+        out.write(lineSeparator);
+        PropertyArray.save(props, out);
+        out.write(lineSeparator);
 
-            StringBuffer buffer = new StringBuffer();
+        // get sections into memory
+        // I hope the out stream is not the same as the resultFile!
+        if (sections == null) {
+            throw new JavaTestError("Cannot write test result - it contains no sections.");
+        }
 
-            for (int i = 0; i < sections.length; i++) {
-                sections[i].save(out);
-            }
+        StringBuffer buffer = new StringBuffer();
 
-            out.write(lineSeparator);
-            out.write(JTR_V2_TSTRESULT);
-            out.write(execStatus.toString());
-            out.write(lineSeparator);
-            out.close();
-        }   // try
-        catch (IOException e) {
-            // This exception could be raised when trying to create the directory
-            // for the test results; opening the results file, or closing it.
-            execStatus = Status.error("Write to temp. JTR file failed (old JTR intact): " +
-                                        tempFile.getPath());
-            resultsFile = null; // file not successfully written after all
-            throw e;
-        }   // catch
+        index.sections = new long[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            index.sections[i] = cout.getCount();
+            sections[i].save(out);
+        }
 
-        try {
-            backupPolicy.backupAndRename(tempFile, resultsFile);
+        out.write(lineSeparator);
+        out.write(JTR_V2_TSTRESULT);
+        out.write(execStatus.toString());
+        out.write(lineSeparator);
 
-            // now that it has been successfully written out, make the object
-            // a candidate for shrinking
-            addToShrinkList();
-        }   // try
-        catch (IOException e) {
-            // This exception could be raised when trying to create the directory
-            // for the test results; opening the results file, or closing it.
-            execStatus = Status.error("Problem writing result file: " +
-                                        resultsFile.getPath());
-            resultsFile = null; // file not successfully written after all
-            throw e;
-        }   // catch
+        // checksum of everything written so far
+        long crc = cout.getChecksum();
+        out.write(JTR_V2_CRC32);
+        out.write(Long.toHexString(crc));
+        out.write(lineSeparator);
+
+        // the index must be the last line of the file
+        out.write(JTR_V2_INDEX);
+        out.write(index.toString());
+        out.write(lineSeparator);
+        out.flush();
     }
 
     // -----observer methods ---------------------------------------------------
@@ -1798,6 +2513,7 @@ public class TestResult {
 
         testURL = url;
         resultsFile = workDir.getFile(getWorkRelativePath());
+        resultLog = workDir.getResultLog();
         execStatus = status;
     }
 
@@ -1824,10 +2540,51 @@ public class TestResult {
 
         testURL = url;
         resultsFile = workDir.getFile(getWorkRelativePath());
+        resultLog = workDir.getResultLog();
         execStatus = status;
         this.endTime = endTime;
     }
 
+    /**
+     * Read a minimal TestResult from a results file, for use when
+     * rebuilding a cache of results. Only the test name, status and
+     * the other result properties are read; the rest of the results
+     * will be reloaded if required. If the properties cannot be read
+     * on their own, the entire file is read.
+     *
+     * @param workDir The work directory containing the file.
+     * @param file The file that the results have been stored into.
+     * @return A test result which can reload the rest of its results.
+     * @throws TestResult.ReloadFault if there is a problem reading the file
+     * @throws TestResult.ResultFileNotFoundFault if the file cannot be found
+     */
+    static TestResult readSummary(WorkDirectory workDir, File file)
+        throws ResultFileNotFoundFault, ReloadFault
+    {
+        String[] p;
+        try {
+            p = readResultProperties(file);
+        }
+        catch (FileNotFoundException e) {
+            throw new ResultFileNotFoundFault(i18n, "rslt.fileNotFound", file);
+        }
+        catch (IOException e) {
+            p = null;
+        }
+
+        String url = (p == null ? null : PropertyArray.get(p, TEST));
+        String statusText = (p == null ? null : PropertyArray.get(p, EXEC_STATUS));
+        Status status = (statusText == null ? null : Status.parse(statusText));
+        if (url == null || status == null)
+            return new TestResult(file);
+
+        TestResult tr = new TestResult(url, workDir, status);
+        tr.resultsFile = file;
+        tr.uniquifyStrings(p);
+        tr.props = p;
+        return tr;
+    }
+
     void shareStatus(Hashtable[] tables) {
         execStatus = shareStatus(tables, execStatus);
     }
@@ -2001,7 +2758,8 @@ public class TestResult {
             throw new IllegalStateException("Cannot do a reload of this object.");
 
         try {
-            reload(new FileReader(resultsFile));
+            reload(openResults());
+            indexedSections = null;
 
             // Well, we have successfully reloaded it, so the object is now taking
             // up a big footprint again ... put it back on the list to be shrunk again
@@ -2015,6 +2773,271 @@ public class TestResult {
         }
     }
 
+    /**
+     * Open the stored results for this test, from the result log if there is
+     * one and it contains the results, or from the results file otherwise.
+     */
+    private Reader openResults() throws IOException {
+        if (resultLog != null) {
+            String s = resultLog.get(resultsFile);
+            if (s != null)
+                return new StringReader(s);
+        }
+        return openResultFile(resultsFile);
+    }
+
+    /**
+     * Get the index of the parts of the stored results for this test,
+     * which is written as the last line of the results. The index is read
+     * the first time it is needed.
+     * @return the index, or null if the results do not have an index
+     */
+    private ResultIndex getResultIndex() {
+        if (!resultIndexChecked) {
+            resultIndex = readResultIndex();
+            resultIndexChecked = true;
+        }
+        return resultIndex;
+    }
+
+    private void resetResultIndex() {
+        resultIndex = null;
+        resultIndexChecked = false;
+        indexedSections = null;
+    }
+
+    private ResultIndex readResultIndex() {
+        if (resultsFile == null)
+            return null;
+
+        try {
+            if (resultLog != null) {
+                String s = resultLog.get(resultsFile);
+                if (s != null)
+                    return ResultIndex.parse(s);
+            }
+        }
+        catch (IOException e) {
+            return null;
+        }
+
+        return readResultIndex(resultsFile);
+    }
+
+    private static ResultIndex readResultIndex(File f) {
+        try {
+            // just read the end of the file; the index will not be found
+            // in a compressed file
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                long length = raf.length();
+                byte[] data = new byte[(int) Math.min(length, MAX_INDEX_SIZE)];
+                raf.seek(length - data.length);
+                raf.readFully(data);
+                return ResultIndex.parse(new String(data, "ISO-8859-1"));
+            }
+            finally {
+                raf.close();
+            }
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read just the result properties from a results file, without reading
+     * the description, environment or sections.
+     * @return the properties, or null if they could not be found
+     * @throws FileNotFoundException if the file cannot be found
+     * @throws IOException if there is a problem reading the file
+     */
+    private static String[] readResultProperties(File f) throws IOException {
+        // if the file has an index, go straight to the properties;
+        // otherwise, skip over the description and environment
+        ResultIndex ri = readResultIndex(f);
+        BufferedReader in;
+        if (ri != null) {
+            InputStream is = new FileInputStream(f);
+            try {
+                is.skip(ri.props);
+            }
+            catch (IOException e) {
+                is.close();
+                throw e;
+            }
+            in = new BufferedReader(new InputStreamReader(is, resultCharset));
+        }
+        else
+            in = new BufferedReader(openResultFile(f));
+
+        try {
+            String line = in.readLine();
+            if (ri == null) {
+                if (line == null || !line.equals(JTR_V2_HEADER))
+                    return null;
+                while ((line = in.readLine()) != null && !line.startsWith(JTR_V2_RESPROPS))
+                    ;
+            }
+            if (line == null || !line.startsWith(JTR_V2_RESPROPS))
+                return null;
+            return PropertyArray.load(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Open the stored results for this test at a position given by the index.
+     * The offsets in the index are byte offsets in the encoding for results,
+     * in the results file or in the result log. As a check against files
+     * which have been edited, the results are only used if the expected
+     * header is found at that position.
+     * @param offset the position at which to open the results
+     * @param header the text expected at the beginning of the first line
+     * @return a reader positioned at the beginning of the first line,
+     *  or null if the results could not be opened at the given position
+     */
+    private BufferedReader openResults(long offset, String header) {
+        if (offset < 0)
+            return null;
+
+        BufferedReader in = null;
+        try {
+            InputStream is = null;
+            if (resultLog != null) {
+                String s = resultLog.get(resultsFile);
+                if (s != null)
+                    is = new ByteArrayInputStream(s.getBytes(resultCharset));
+            }
+            if (is == null)
+                is = new FileInputStream(resultsFile);
+            try {
+                if (is.skip(offset) != offset)
+                    throw new IOException();
+            }
+            catch (IOException e) {
+                is.close();
+                throw e;
+            }
+            in = new BufferedReader(new InputStreamReader(is, resultCharset));
+
+            in.mark(MAX_HEADER_SIZE);
+            String line = in.readLine();
+            if (line != null && line.startsWith(header)) {
+                in.reset();
+                return in;
+            }
+        }
+        catch (IOException e) {
+            // ignore, and fall through
+        }
+
+        if (in != null) {
+            try {
+                in.close();
+            }
+            catch (IOException ignore) {
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read a block of properties, such as the test description, at a position
+     * given by the index.
+     * @return the properties, or null if they could not be read
+     */
+    private String[] reloadProperties(long offset, String header) {
+        BufferedReader in = openResults(offset, header);
+        if (in == null)
+            return null;
+
+        try {
+            in.readLine();
+            String[] data = PropertyArray.load(in);
+            uniquifyStrings(data);
+            return data;
+        }
+        catch (IOException e) {
+            return null;
+        }
+        finally {
+            try {
+                in.close();
+            }
+            catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Read a single section at the position given by the index.
+     * Sections which have been read are kept until this object is shrunk.
+     * @return the section, or null if it could not be read
+     */
+    private Section reloadSection(ResultIndex ri, int index) throws ReloadFault {
+        if (indexedSections == null)
+            indexedSections = new Section[ri.sections.length];
+        else if (indexedSections[index] != null)
+            return indexedSections[index];
+
+        BufferedReader in = openResults(ri.sections[index], JTR_V2_SECTION);
+        if (in == null)
+            return null;
+
+        try {
+            indexedSections[index] = new Section(in);
+        }
+        catch (IOException e) {
+            return null;
+        }
+        finally {
+            try {
+                in.close();
+            }
+            catch (IOException ignore) {
+            }
+        }
+
+        // the section may be large, so make this object a candidate for shrinking
+        addToShrinkList();
+
+        return indexedSections[index];
+    }
+
+    /**
+     * Open a results file for reading, decompressing it if necessary.
+     */
+    private static Reader openResultFile(File f) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(f));
+        try {
+            // check for the gzip magic number, which is stored low byte first
+            in.mark(2);
+            int b0 = in.read();
+            int b1 = in.read();
+            in.reset();
+            if (b0 == (GZIPInputStream.GZIP_MAGIC & 0xff) && b1 == (GZIPInputStream.GZIP_MAGIC >> 8))
+                in = new GZIPInputStream(in);
+            return new InputStreamReader(in, resultCharset);
+        }
+        catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create a results file for writing, compressing it if requested.
+     */
+    private static OutputStream createResultFile(File f) throws IOException {
+        if (compressResults)
+            return new GZIPOutputStream(new FileOutputStream(f), COMPRESS_BUFFER_SIZE);
+        else
+            return new BufferedOutputStream(new FileOutputStream(f));
+    }
+
     /**
      * @throws ReloadFault Generally describes any error which is encountered while
      *            reading or processing the input file.  This may indicate
@@ -2024,7 +3047,7 @@ public class TestResult {
         throws ReloadFault, IOException
     {
         try {
-            BufferedReader br = new BufferedReader(r);
+            ChecksumReader br = new ChecksumReader(r);
             String line = br.readLine();
 
             // determine JTR version
@@ -2190,7 +3213,7 @@ public class TestResult {
         return section;
     }
 
-    private void reloadVersion2(BufferedReader in)
+    private void reloadVersion2(ChecksumReader in)
         throws ReloadFault, IOException
     {
         String checksumText = null;
@@ -2266,8 +3289,30 @@ public class TestResult {
         if (execStatus == null)
             execStatus = Status.error("NO STATUS RECORDED IN FILE");
 
+        // the CRC-32 checksum, if any, covers everything up to the final
+        // test status, and follows it
+        long crc = in.getChecksum();
+        String crcText = null;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(JTR_V2_CRC32)) {
+                crcText = line.substring(JTR_V2_CRC32.length());
+                break;
+            }
+        }
+
         // check whether checksum was valid or not
-        if (checksumText == null)
+        if (crcText != null) {
+            try {
+                if (Long.parseLong(crcText, 16) == crc)
+                    checksumState = GOOD_CHECKSUM;
+                else
+                    checksumState = BAD_CHECKSUM;
+            }
+            catch (NumberFormatException e) {
+                checksumState = BAD_CHECKSUM;
+            }
+        }
+        else if (checksumText == null)
             checksumState = NO_CHECKSUM;
         else {
             try {
@@ -2502,58 +3547,104 @@ public class TestResult {
         return location;
     }
 
+    /**
+     * Record this object as recently used, making it a candidate for shrinking
+     * when other results are loaded.
+     * @see ResultResidency
+     */
     private void addToShrinkList() {
-        synchronized (shrinkList) {
-            // if this object is in the list; remove it;
-            // if there are dead weak refs, remove them
-            for (Iterator iter = shrinkList.iterator(); iter.hasNext(); ) {
-                WeakReference wref = (WeakReference) (iter.next());
-                Object o = wref.get();
-                if (o == null || o == this)
-                    iter.remove();
-            }
-            while (shrinkList.size() >= maxShrinkListSize) {
-                WeakReference wref = (WeakReference) (shrinkList.removeFirst());
-                TestResult tr = (TestResult) (wref.get());
-                if (tr != null)
-                    tr.shrink();
+        residency.touch(this, getResidentSize());
+    }
+
+    /**
+     * Estimate the memory used by the data that is discarded when this
+     * object is shrunk.
+     * @return the estimated size, in bytes, of the data that is discarded
+     * when this object is shrunk
+     */
+    private long getResidentSize() {
+        long size = getSize(props) + getSize(env);
+        size += getSize(sections);
+        size += getSize(indexedSections);
+        return size;
+    }
+
+    private static long getSize(String[] data) {
+        if (data == null)
+            return 0;
+        long size = ARRAY_OVERHEAD + data.length * REF_SIZE;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != null)
+                size += STRING_OVERHEAD + 2L * data[i].length();
+        }
+        return size;
+    }
+
+    private static long getSize(Section[] data) {
+        if (data == null)
+            return 0;
+        long size = ARRAY_OVERHEAD + data.length * REF_SIZE;
+        for (int i = 0; i < data.length; i++) {
+            Section s = data[i];
+            if (s == null)
+                continue;
+            String[] names = s.getOutputNames();
+            for (int j = 0; j < names.length; j++) {
+                String o = s.getOutput(names[j]);
+                if (o != null)
+                    size += STRING_OVERHEAD + 2L * o.length();
             }
-            shrinkList.addLast(new WeakReference(this));
         }
+        return size;
     }
 
     /**
      * Tells the object that it can optimize itself for a small memory footprint.
      * Doing this may sacrifice performance when accessing object data.  This
      * only works on results that are immutable.
+     * The sections are always discarded; the properties and environment are
+     * also discarded if they can be reloaded, leaving just the name, status
+     * and end time of the test. The description is kept, since it is used
+     * when filtering the tests in a test result table.
      */
-    private synchronized void shrink() {
+    synchronized void shrink() {
         if (isMutable()) {
             throw new IllegalStateException("Can't shrink a mutable test result!");
         }
 
         // Should ensure we have a resultsFile.
         sections = null;
+        indexedSections = null;
 
-        // NOTE: if either of these are discarded, it may be a good idea to
-        //       optimize reload() to not read the section/stream data since
-        //       a small property lookup could incur a huge overhead
-        //props = null;         // works, may or may-not improve memory usage
-        //desc = null;          // doesn't work in current implementation
+        if (isReloadable()) {
+            // remember the end time, so that it is still available without
+            // reloading the properties
+            if (endTime < 0 && props != null)
+                getEndTime();
+            props = null;
+            env = null;
+        }
     }
 
     // the following fields should be valid for all test results
     private File resultsFile;           // if set, location where test results are stored
+    private ResultLog resultLog;        // if set, log which may contain the test results
     private Status execStatus;          // pre-compare result
     private String testURL;             // URL for this test, equal to the one in TD.getRootRelativeURL
     private long endTime = -1;          // when test finished
     private byte checksumState;         // checksum state
-    // the following fields are candidates for shrinking although not currently done
+    // this field is a candidate for shrinking although not currently done
     private TestDescription desc;       // test description for which this is the result
+    // these fields are cleared when the test result is shrunk
     private String[] props;             // table of values written during test execution
     private String[] env;
-    // this field is cleared when the test result is shrunk
     private Section[] sections;         // sections of output written during test execution
+    private File spillPrefix;           // if set, prefix for files for complete output
+    // the index of the stored results, and any sections read using it while shrunk
+    private ResultIndex resultIndex;
+    private boolean resultIndexChecked;
+    private Section[] indexedSections;
+    private File[] spillFiles = new File[0];
 
     // only valid when this TR is in a TRT, should remain when shrunk
     private TestResultTable.TreeNode parent;
@@ -2623,6 +3714,36 @@ public class TestResult {
     */
     public static final String TEST = "test";
 
+    /**
+     * The name of the property that is set if the test timed out
+     * while it was running.
+     */
+    public static final String TIMED_OUT = "timedOut";
+
+    /**
+     * The name of the property giving the attempt number of a test that
+     * was run again during a test run because an earlier attempt did not
+     * pass. The property is not set for the first attempt.
+     * @see Harness#setMaxAttempts
+     */
+    public static final String ATTEMPT = "attempt";
+
+    /**
+     * The name of the property that is set to "true" if the test passed
+     * after an earlier attempt in the same test run did not pass.
+     * @see Harness#setMaxAttempts
+     */
+    public static final String FLAKY = "flaky";
+
+    /**
+     * The name of the property giving the names of the files in which the
+     * complete output of any streams which overflowed was written,
+     * separated by spaces. The files are in the same directory as the
+     * result file.
+     * @see #setSpillPrefix
+     */
+    public static final String SPILLED_OUTPUT = "spilledOutput";
+
     /**
      * The name of the property that defines which version of JT Harness
      * was used to run the test.
@@ -2666,17 +3787,37 @@ public class TestResult {
     private static final String JTR_V2_SECTRESULT = "result: ";
     private static final String JTR_V2_TSTRESULT = "test result: ";
     private static final String JTR_V2_SECTSTREAM = "----------";
+    private static final String JTR_V2_CRC32 = "#crc32:";
+    private static final String JTR_V2_INDEX = "#index: ";
+    private static final int MAX_INDEX_SIZE = 4096;
+    private static final int MAX_HEADER_SIZE = 1024;
 
     private static final String lineSeparator = System.getProperty("line.separator");
 
     private static final int DEFAULT_MAX_SHRINK_LIST_SIZE = 128;
     private static final int maxShrinkListSize =
         Integer.getInteger("javatest.numCachedResults", DEFAULT_MAX_SHRINK_LIST_SIZE).intValue();
-    private static LinkedList shrinkList = new LinkedList();
+    private static final long maxShrinkListBytes =
+        Integer.getInteger("javatest.cachedResultsSize", 0).intValue() * 1024L * 1024L;
+    private static final ResultResidency residency =
+        new ResultResidency(maxShrinkListSize, maxShrinkListBytes);
+
+    // rough sizes, in bytes, used to estimate the memory used by a result
+    private static final int ARRAY_OVERHEAD = 16;
+    private static final int REF_SIZE = 8;
+    private static final int STRING_OVERHEAD = 40;
+
+    private static final boolean compressResults = Boolean.getBoolean("javatest.compressResults");
+    private static final boolean legacyChecksum = Boolean.getBoolean("javatest.legacyChecksum");
+    private static final int COMPRESS_BUFFER_SIZE = 8192;
 
     private static final int DEFAULT_MAX_OUTPUT_SIZE = 100000;
     private static final int maxOutputSize =
         Integer.getInteger("javatest.maxOutputSize", DEFAULT_MAX_OUTPUT_SIZE).intValue();
+    private static final boolean spillOutput = Boolean.getBoolean("javatest.spillOutput");
+    private static final String SPILL_EXTN = ".log";
+    // the encoding of .jtr files, and of the offsets in their index
+    private static final Charset resultCharset = Charset.defaultCharset();
 
     private static I18NResourceBundle i18n = I18NResourceBundle.getBundleForClass(TestResult.class);
 
@@ -26,13 +26,28 @@
  */
 package com.sun.javatest;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.sun.javatest.util.Debug;
 import com.sun.javatest.util.Fifo;
@@ -43,6 +58,14 @@ import com.sun.javatest.util.I18NResourceBundle;
  * work directory.  It is designed to allow the harness to get general
  * information (name, status) about tests without having to open all the
  * result files.
+ * <p>
+ * The cache file begins with a header giving the number of entries that
+ * were written when the file was last compressed, and a table of the
+ * directory prefixes of the test names; each entry refers to its prefix by
+ * index. Entries for updated tests are appended to the end of the file.
+ * The file is read and written in bulk, rather than a field at a time.
+ * A version 2 cache file is imported, if available, when the cache is
+ * first created in a work directory.
  */
 public class TestResultCache {
     /**
@@ -116,8 +139,14 @@ public class TestResultCache {
         weakWorkDir = new WeakReference(workDir);
         weakObserver = new WeakReference(observer);
 
-        cacheFile = workDir.getSystemFile(V2_FILENAME);
-        lockFile = workDir.getSystemFile(V2_LOCKNAME);
+        cacheFile = workDir.getSystemFile(V3_FILENAME);
+        lockFile = workDir.getSystemFile(V3_LOCKNAME);
+
+        // only import the version 2 cache the first time through; after that,
+        // it may have been updated by an older harness and would be out of date
+        File v2 = workDir.getSystemFile(V2_FILENAME);
+        if (!cacheFile.exists() && v2.exists())
+            v2CacheFile = v2;
 
         File old = workDir.getSystemFile(V1_FILENAME);
         if (old.exists()) {
@@ -303,6 +332,12 @@ public class TestResultCache {
         Map tests = null;
         boolean rebuildCache = false;
 
+        // tests may be queued for the cache before their results have been
+        // written; make sure they have been written in case they are reloaded
+        ResultWriter w = workDir.getResultWriter();
+        if (w != null)
+            w.flush();
+
         getLock();
 
         try {
@@ -337,9 +372,13 @@ public class TestResultCache {
                 return;
             }
 
-            // if cache is empty, rebuild it from .jtr files;
-            // note that a valid cache with no tests has length 4
-            if (rebuildCache) {
+            // if cache is empty, import it from an older cache file if one is
+            // available, or else rebuild it from .jtr files;
+            // note that a valid cache with no tests has a 16 byte header
+            if (rebuildCache && v2CacheFile != null)
+                tests = importV2Cache();
+
+            if (rebuildCache && tests == null) {
                 observer.buildingCache(rebuildCache);
                 tests = readJTRFiles();
                 observer.builtCache();
@@ -461,14 +500,53 @@ public class TestResultCache {
     // Read a set of tests from the *.jtr files in the work directory
 
     private Map readJTRFiles() {
-        Map tests = new TreeMap();
-        readJTRFiles(workDir.getRoot(), tests);
+        // the directories are read in parallel, and only the status of
+        // each test is read from its .jtr file
+        Map found = new ConcurrentHashMap();
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new ReadJTRFiles(workDir.getRoot(), found));
+        }
+        finally {
+            pool.shutdown();
+        }
+        Map tests = new TreeMap(found);
+
+        // results in the result log, if any, supersede those in .jtr files
+        ResultLog rl = workDir.getResultLog();
+        if (rl != null) {
+            String[] paths = rl.getPaths();
+            for (int i = 0; i < paths.length && !shutdownRequested; i++) {
+                try {
+                    TestResult tr = new TestResult(workDir, paths[i]);
+                    tests.put(tr.getWorkRelativePath(), tr);
+                }
+                catch (TestResult.Fault e) {
+                    workDir.log(i18n, "trc.badLogEntry", paths[i]);
+                }
+            }
+        }
+
         return tests;
     }
 
-    private void readJTRFiles(File dir, Map tests) {
-        File[] entries = dir.listFiles();
-        if (entries != null) {
+    /**
+     * Read the .jtr files in a directory, and fork a new task for
+     * each subdirectory.
+     */
+    private class ReadJTRFiles extends RecursiveAction {
+        ReadJTRFiles(File dir, Map tests) {
+            this.dir = dir;
+            this.tests = tests;
+        }
+
+        protected void compute() {
+            File[] entries = dir.listFiles();
+            if (entries == null)
+                return;
+
+            List subtasks = new ArrayList();
+
             // monitor shutdownRequested and give up if set true;
             // no specific notification is passed back in this case;
             // it is assumed the caller will also check shutdownRequested
@@ -476,10 +554,10 @@ public class TestResultCache {
             for (int i = 0; i < entries.length && !shutdownRequested; i++) {
                 File f = entries[i];
                 if (f.isDirectory())
-                    readJTRFiles(f, tests);
+                    subtasks.add(new ReadJTRFiles(f, tests));
                 else if (TestResult.isResultFile(f)) {
                     try {
-                        TestResult tr = new TestResult(f);
+                        TestResult tr = TestResult.readSummary(workDir, f);
                         tests.put(tr.getWorkRelativePath(), tr);
                     }
                     catch (TestResult.ResultFileNotFoundFault e) {
@@ -495,13 +573,18 @@ public class TestResultCache {
                 }
                 entries[i] = null;  // just to help GC
             }
+
+            invokeAll(subtasks);
         }
+
+        private final File dir;
+        private final Map tests;
     }
 
     private TestResult reload(Map tests, TestResult tr) {
         File jtr = workDir.getFile(tr.getWorkRelativePath());
         try {
-            return new TestResult(jtr);
+            return new TestResult(workDir, tr.getWorkRelativePath());
         }
         catch (TestResult.ResultFileNotFoundFault e) {
             // test is presumably not run or has been purged
@@ -511,7 +594,7 @@ public class TestResultCache {
             tests.put(name, tr); // in case fullUpdateRequested
             return tr;
         }
-        catch (TestResult.ReloadFault e) {
+        catch (TestResult.Fault e) {
                                 // bad .jtr, delete it
             workDir.log(i18n, "trc.badjtr", jtr);
             jtr.delete();
@@ -534,6 +617,8 @@ public class TestResultCache {
             Debug.println("TRC.readCache");
 
         raf.seek(0);
+        if (raf.readInt() != V3_MAGIC)
+            throw new IOException(i18n.getString("trc.badFormat"));
         int fileSerial = raf.readInt();
 
         if (DEBUG_WORK)
@@ -547,7 +632,16 @@ public class TestResultCache {
             // read full cache
             lastSerial = fileSerial;
             totalEntryCount = 0;
-            Map tests = readCacheEntries();
+            DataInputStream in = readFrom(0);
+            in.skipBytes(8); // magic and serial, already read
+            int entryCount = in.readInt();
+            String[] p = new String[in.readInt()];
+            for (int i = 0; i < p.length; i++)
+                p[i] = in.readUTF();
+            setPrefixes(p);
+            Map tests = readCacheEntries(in);
+            if (totalEntryCount < entryCount)
+                throw new EOFException();
             uniqueInitialEntryCount = tests.size();
 
             if (DEBUG_WORK)
@@ -556,9 +650,9 @@ public class TestResultCache {
             return tests;
         }
         else if (raf.length() > lastFileSize) {
-            // just read updates from file
-            raf.seek(lastFileSize);
-            Map tests = readCacheEntries();
+            // just read updates from file; the prefix table is unchanged
+            // because the serial number is unchanged
+            Map tests = readCacheEntries(readFrom(lastFileSize));
 
             if (DEBUG_WORK)
                 Debug.println("TRC.readCache read update (" + tests.size() + " tests)");
@@ -573,27 +667,87 @@ public class TestResultCache {
         }
     }
 
-    private Map readCacheEntries()
+    /**
+     * Read the rest of the cache file, from a given position, in a single
+     * operation, and return a stream to parse the contents.
+     */
+    private DataInputStream readFrom(long pos) throws IOException {
+        byte[] data = new byte[(int) (raf.length() - pos)];
+        raf.seek(pos);
+        raf.readFully(data);
+        lastFileSize = pos + data.length;
+        return new DataInputStream(new ByteArrayInputStream(data));
+    }
+
+    private Map readCacheEntries(DataInputStream in)
         throws IOException, IllegalArgumentException
     {
         Map tests = new TreeMap();
-        while (raf.getFilePointer() < raf.length()) {
-            String name = raf.readUTF();
-            int status = raf.readInt();
-            String reason = raf.readUTF();
-            long endTime = raf.readLong();
+        while (in.available() > 0) {
+            int prefix = in.readInt();
+            String name = in.readUTF();
+            if (prefix != NO_PREFIX)
+                name = prefixes[prefix] + name;
+            int status = in.readByte();
+            String reason = in.readUTF();
+            long endTime = in.readLong();
             TestResult tr = new TestResult(name, workDir, new Status(status, reason), endTime);
-            File f = tr.getFile();
-            if (!f.exists()) {
+            if (!exists(tr)) {
                 tr.resetFile();
             }
             tests.put(tr.getWorkRelativePath(), tr);
             totalEntryCount++; // count all entries, including duplicates
         }
-        lastFileSize = raf.length();
         return tests;
     }
 
+    private boolean exists(TestResult tr) {
+        ResultLog rl = workDir.getResultLog();
+        return ((rl != null && rl.contains(tr.getFile())) || tr.getFile().exists());
+    }
+
+    //-------------------------------------------------------------------------------------
+    //
+    // Import a version 2 cache file
+
+    private Map importV2Cache() {
+        File f = v2CacheFile;
+        v2CacheFile = null;
+
+        // if the version 2 cache is in use by an older harness, leave it alone
+        if (workDir.getSystemFile(V2_LOCKNAME).exists())
+            return null;
+
+        workDir.log(i18n, "trc.importCachev2", f.getAbsolutePath());
+        try {
+            Map tests = new TreeMap();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            try {
+                in.readInt(); // serial
+                while (in.available() > 0) {
+                    String name = in.readUTF();
+                    int status = in.readInt();
+                    String reason = in.readUTF();
+                    long endTime = in.readLong();
+                    TestResult tr = new TestResult(name, workDir, new Status(status, reason), endTime);
+                    if (!exists(tr))
+                        tr.resetFile();
+                    tests.put(tr.getWorkRelativePath(), tr);
+                }
+            }
+            finally {
+                in.close();
+            }
+            f.delete();
+            return tests;
+        }
+        catch (Throwable e) {
+            // can't import the cache; the caller will rebuild it instead
+            workDir.log(i18n, "trc.reloadFault", e);
+            return null;
+        }
+    }
+
     //-------------------------------------------------------------------------------------
     //
     // Write the cache
@@ -619,17 +773,38 @@ public class TestResultCache {
                 tests.put(tr.getWorkRelativePath(), tr);
         }
 
+        // determine the prefix table for the new cache file
+        Set p = new LinkedHashSet();
+        for (Iterator iter = tests.keySet().iterator(); iter.hasNext(); ) {
+            String prefix = getPrefix((String) (iter.next()));
+            if (prefix != null)
+                p.add(prefix);
+        }
+        setPrefixes((String[]) (p.toArray(new String[p.size()])));
+
         // write cache
-        raf.seek(0);
         long now = System.currentTimeMillis();
         lastSerial = (int) ((now >> 16) + (now & 0xffff));
-        raf.writeInt(lastSerial);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(V3_MAGIC);
+        out.writeInt(lastSerial);
+        out.writeInt(tests.size());
+        out.writeInt(prefixes.length);
+        for (int i = 0; i < prefixes.length; i++)
+            out.writeUTF(prefixes[i]);
 
         for (Iterator iter = tests.values().iterator(); iter.hasNext(); ) {
             tr = (TestResult) (iter.next());
-            writeCacheEntry(tr);
+            writeCacheEntry(out, tr);
         }
 
+        raf.seek(0);
+        raf.write(bytes.toByteArray());
+        // discard any old entries beyond the end of the new ones
+        raf.setLength(bytes.size());
+
         if (DEBUG_WORK)
             Debug.println("TRC.writeCache write all (" + tests.size() + " tests)");
 
@@ -642,7 +817,8 @@ public class TestResultCache {
         // it till its empty, even though some tests may even have been added
         // after the worker woke up
         int debugCount = 0;
-        raf.seek(lastFileSize);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
         TestResult tr;
         while ((tr = (TestResult) (testsToWrite.remove())) != null) {
             if (tests != null) {
@@ -656,24 +832,51 @@ public class TestResultCache {
                         tr = reload(tests, tr);
                 }
             }
-            writeCacheEntry(tr);
+            writeCacheEntry(out, tr);
             debugCount++;
         }
+        if (debugCount > 0) {
+            raf.seek(lastFileSize);
+            raf.write(bytes.toByteArray());
+        }
         if (DEBUG_WORK && debugCount > 0)
             Debug.println("TRC.writeCache write update (" + debugCount + " tests)");
         lastFileSize = raf.length();
     }
 
-    private void writeCacheEntry(TestResult tr) throws IOException {
+    private void writeCacheEntry(DataOutputStream out, TestResult tr) throws IOException {
         String name = tr.getTestName();
         Status status = tr.getStatus();
-        raf.writeUTF(name);
-        raf.writeInt(status.getType());
-        raf.writeUTF(status.getReason());
-        raf.writeLong(tr.getEndTime());
+        String prefix = getPrefix(name);
+        Integer index = (prefix == null ? null : (Integer) (prefixIndexes.get(prefix)));
+        if (index == null) {
+            // tests added since the cache was last compressed may not have
+            // an entry in the prefix table
+            out.writeInt(NO_PREFIX);
+            out.writeUTF(name);
+        }
+        else {
+            out.writeInt(index.intValue());
+            out.writeUTF(name.substring(prefix.length()));
+        }
+        out.writeByte(status.getType());
+        out.writeUTF(status.getReason());
+        out.writeLong(tr.getEndTime());
         totalEntryCount++;
     }
 
+    private static String getPrefix(String name) {
+        int sep = name.lastIndexOf('/');
+        return (sep == -1 ? null : name.substring(0, sep + 1));
+    }
+
+    private void setPrefixes(String[] p) {
+        prefixes = p;
+        prefixIndexes = new HashMap();
+        for (int i = 0; i < p.length; i++)
+            prefixIndexes.put(p[i], new Integer(i));
+    }
+
     //-------------------------------------------------------------------------------------
     //
     // lock acquisition and release
@@ -778,6 +981,7 @@ public class TestResultCache {
     private WeakReference weakWorkDir;
     private File cacheFile;
     private File lockFile;
+    private File v2CacheFile;
     private Thread worker;
     private Thread shutdownHandler;
 
@@ -788,6 +992,8 @@ public class TestResultCache {
     private int lastSerial;
     private long lastFileSize;
     private boolean updateNeeded;
+    private String[] prefixes = new String[0];
+    private Map prefixIndexes = new HashMap();
 
     // synchronized data
     private boolean fullUpdateRequested;
@@ -801,6 +1007,11 @@ public class TestResultCache {
     private static final String V1_LOCKNAME = V1_FILENAME + ".lck";
     private static final String V2_FILENAME = "ResultCache2.jtw";
     private static final String V2_LOCKNAME = V2_FILENAME + ".lck";
+    private static final String V3_FILENAME = "ResultCache3.jtw";
+    private static final String V3_LOCKNAME = V3_FILENAME + ".lck";
+    private static final int V3_MAGIC = 0x4A544333;    // "JTC3"
+    private static final int NO_PREFIX = -1;
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     // other
     private static I18NResourceBundle i18n = I18NResourceBundle.getBundleForClass(TestResultCache.class);
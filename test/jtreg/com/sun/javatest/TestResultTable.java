@@ -37,6 +37,8 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.sun.javatest.util.Debug;
 import com.sun.javatest.util.DynamicArray;
@@ -567,7 +569,9 @@ public class TestResultTable {
      * @return True if the table is in a consistent state.
      * @see #waitUntilReady
      */
-    public synchronized boolean isReady() {
+    public boolean isReady() {
+        // both flags are volatile, so there is no need to wait for the lock,
+        // which is held while the table is being updated from the cache
         return (cacheInitialized && !updateInProgress);
     }
 
@@ -596,6 +600,22 @@ public class TestResultTable {
         // no tree yet
         if (root == null) return null;
 
+        TestResult tr = (TestResult)(testIndex.get(jtrPath));
+        if (tr != null) {
+            if (finder == null)
+                return tr;
+
+            // give the nodes above the test the chance to be scanned, as they
+            // would be if we walked down the tree; the scan may replace the test
+            TRT_TreeNode node = (TRT_TreeNode)(tr.getParent());
+            if (node != null && node.getEnclosingTable() == this) {
+                getNodePath(node, false);
+                tr = (TestResult)(testIndex.get(jtrPath));
+                if (tr != null)
+                    return tr;
+            }
+        }
+
         return findTest((TRT_TreeNode)root, jtrPath, jtrPath);
     }
 
@@ -612,6 +632,10 @@ public class TestResultTable {
      * @since 3.2
      */
     public Object resolveUrl(String url) {
+        Object node = (url == null ? null : nodeIndex.get(url));
+        if (node != null)
+            return node;
+
         return lookupNode(root, url);
     }
 
@@ -854,6 +878,36 @@ public class TestResultTable {
         return getIterator(node, filters);
     }
 
+    /**
+     * Get a walker which visits all the tests in the tree subject to the
+     * given filters.  Unlike an iterator, the walker calls its visitor on
+     * several threads at once.  The filters need not be thread-safe: they
+     * are only given one test at a time.
+     *
+     * @param filters The Filters to run tests through before "selecting"
+     *        them for a visit.  May be null.
+     * @return A walker which visits all tests in the tree after removing
+     *         those filtered out by the filters.
+     * @see #getIterator(TestFilter[])
+     */
+    public TreeWalker getWalker(TestFilter[] filters) {
+        return getWalker(root, filters);
+    }
+
+    /**
+     * Get a walker which visits all the tests below the given node, subject
+     * to the given filters.
+     *
+     * @param node The tree node to begin walking at.  May be null.
+     * @param filters The test filters to apply to any tests found.  May be null.
+     * @return A walker which visits the tests below the given node after
+     *         removing any tests which the filters reject.
+     * @see #getIterator(TreeNode, TestFilter[])
+     */
+    public static TreeWalker getWalker(TreeNode node, TestFilter[] filters) {
+        return new TRT_Walker(node, filters);
+    }
+
     /**
      * Get an enumarator capable of producing a filtered view of the test
      * suite.  This can be used to obtain a view of the test suite based on an
@@ -1039,6 +1093,13 @@ public class TestResultTable {
         String key = tr.getWorkRelativePath();
         //maxDepth = 0;
 
+        // if the test is already in the table, go straight to the node
+        // which contains it, instead of walking down the tree
+        TestResult prev = (TestResult)(testIndex.get(key));
+        TRT_TreeNode node = (prev == null ? null : (TRT_TreeNode)(prev.getParent()));
+        if (node != null && node.getEnclosingTable() == this)
+            return insertLeaf(node, tr, getNodePath(node, suppressScan), suppressScan);
+
         TRT_TreeNode[] path = new TRT_TreeNode[0];
 
         return insert(root, key, tr, path, suppressScan);
@@ -1054,15 +1115,7 @@ public class TestResultTable {
      *         there was no previous value.
      */
     TestResult insert(TestResult tr, Status oldStatus) {
-        if (tr == null)
-            return null;
-
-        String key = tr.getWorkRelativePath();
-        //maxDepth = 0;
-
-        TRT_TreeNode[] path = new TRT_TreeNode[0];
-
-        return insert(root, key, tr, path, false);
+        return insert(tr, false);
     }
 
     /**
@@ -1074,6 +1127,34 @@ public class TestResultTable {
         return root;
     }
 
+    /**
+     * Get a point in time copy of the tree, which can be read without any
+     * locking while the table continues to be updated.  The copy includes
+     * all the tests which had been inserted into the table when this method
+     * was called, and none of those inserted since.  The parts of the tree
+     * which have not changed are shared with earlier snapshots, so taking a
+     * snapshot is cheap when little has changed since the last one.
+     * <p>
+     * The nodes of the snapshot never change, and never notify their
+     * observers.  They can be passed to <code>getIterator</code> or
+     * <code>getWalker</code>, although <code>TreeIterator.isPending</code>
+     * is only supported on the live tree.  The test results themselves
+     * are shared with the table.
+     *
+     * @return The root of the copy of the tree.
+     * @see #getRoot
+     */
+    public TestResultTable.TreeNode getSnapshot() {
+        // bring the shared copy up to date first, scanning the test suite
+        // as needed, so that updates to the table are only held up while
+        // the changes made since then are copied
+        root.getSnapshotContents();
+
+        synchronized (this) {
+            return new TRT_Snapshot(root.getSnapshotContents(), null, this);
+        }
+    }
+
     /**
      * Get the root URL of the test suite.
      * This may not match that given by the environment if the environment's
@@ -1651,78 +1732,8 @@ public class TestResultTable {
 
         if (path == newPath) {
             // this should be the test name, make it a leaf
-
-            // last parameter allows the TR to be dropped if it does not exist
-            // in the test suite.
-            TestResult oldTR = node.addChild(tr, suppressScan, !cacheInitialized);
-            //tr.setParent(node);   // now done in TRT_TreeNode.addChild()
             rec = (TRT_TreeNode[])DynamicArray.append(rec, node);
-
-            // index will be -1 if the node insertion was rejected
-            // perhaps upgrade the code so that addChild() throws and
-            // exception
-            int index = node.getIndex(tr, suppressScan);
-
-            if (oldTR == null) {
-                if (debug > 10) {
-                    Debug.println("   => Inserted TR: " + tr.getTestName());
-                    Debug.println("   => Test Ref: " + tr);
-                    Debug.println("   => Status is: " + Status.typeToString(tr.getStatus().getType()));
-                    Debug.println("   => TRT: " + this);
-                    Debug.println("   => Node Ref: " + node);
-                    Debug.println("   => Node path: " + getRootRelativePath(node));
-                    Debug.println("   => Index in node: " + node.getIndex(tr, suppressScan));
-                }   // debug
-
-                if (index != -1)
-                    notifyNewLeaf(rec, tr, node.getIndex(tr, suppressScan));
-            }
-            else if (oldTR == tr) {
-                if (debug > 10) {
-                    Debug.println("   => Ignored new TR: " + tr.getTestName());
-                    Debug.println("   => Test Ref: " + tr);
-                    Debug.println("   => Status is: " + Status.typeToString(tr.getStatus().getType()));
-                    Debug.println("   => RESETTING IT! " + updateInProgress);
-                }
-
-                if (updateInProgress)
-                    resetTest(tr.getTestName());
-            }
-            else {
-                if (debug > 10) {
-                    Debug.println("   => Updated TR: " + tr.getTestName());
-                    Debug.println("   => Test Ref: " + tr);
-                    Debug.println("   => Status is: " + Status.typeToString(tr.getStatus().getType()));
-                    Debug.println("   => TRT: " + this);
-                    Debug.println("   => Node Ref: " + node);
-                    Debug.println("   => Node path: " + getRootRelativePath(node));
-                    Debug.println("   => Index in node: " + index);
-                }   // debug
-
-                if (index == -1) {
-                    // insert was ignored for some reason
-                }
-                else if (oldTR != null && oldTR != tr) {
-                    // handover known info if new tr is minimal
-                    if (tr.isShrunk()) {
-                        try {
-                            TestDescription desc = oldTR.getDescription();
-                            if (desc != null)
-                                tr.setTestDescription(desc);
-                        }
-                        catch (TestResult.Fault f) {
-                            // give up
-                        }
-                    }
-
-                    notifyRemoveLeaf(rec, oldTR, index);
-                    notifyNewLeaf(rec, tr, index);
-                }
-                else
-                    notifyChangeLeaf(rec, tr, index, oldTR);
-            }
-
-            return oldTR;
+            return insertLeaf(node, tr, rec, suppressScan);
         }
         else {
             // has at least 1 dir name left
@@ -1749,6 +1760,140 @@ public class TestResultTable {
         }
     }
 
+    /**
+     * Insert the given test into the node which should contain it.
+     *
+     * @param node The node in which to store the test.
+     * @param tr   The test result object we are storing
+     * @param rec  The path from the root to the node, including the node.
+     * @param suppressScan Request that test finder activity be suppressed.
+     * @return The test result which was replaced by this operation, null if no
+     *         previous entry existed.
+     */
+    private synchronized TestResult insertLeaf(TRT_TreeNode node, TestResult tr,
+                                               TRT_TreeNode[] rec, boolean suppressScan) {
+        // last parameter allows the TR to be dropped if it does not exist
+        // in the test suite.
+        TestResult oldTR = node.addChild(tr, suppressScan, !cacheInitialized);
+        //tr.setParent(node);   // now done in TRT_TreeNode.addChild()
+
+        // index will be -1 if the node insertion was rejected
+        // perhaps upgrade the code so that addChild() throws and
+        // exception
+        int index = node.getIndex(tr, suppressScan);
+
+        if (oldTR == null) {
+            if (debug > 10) {
+                Debug.println("   => Inserted TR: " + tr.getTestName());
+                Debug.println("   => Test Ref: " + tr);
+                Debug.println("   => Status is: " + Status.typeToString(tr.getStatus().getType()));
+                Debug.println("   => TRT: " + this);
+                Debug.println("   => Node Ref: " + node);
+                Debug.println("   => Node path: " + getRootRelativePath(node));
+                Debug.println("   => Index in node: " + node.getIndex(tr, suppressScan));
+            }   // debug
+
+            if (index != -1)
+                notifyNewLeaf(rec, tr, node.getIndex(tr, suppressScan));
+        }
+        else if (oldTR == tr) {
+            if (debug > 10) {
+                Debug.println("   => Ignored new TR: " + tr.getTestName());
+                Debug.println("   => Test Ref: " + tr);
+                Debug.println("   => Status is: " + Status.typeToString(tr.getStatus().getType()));
+                Debug.println("   => RESETTING IT! " + updateInProgress);
+            }
+
+            if (updateInProgress)
+                resetTest(tr.getTestName());
+        }
+        else {
+            if (debug > 10) {
+                Debug.println("   => Updated TR: " + tr.getTestName());
+                Debug.println("   => Test Ref: " + tr);
+                Debug.println("   => Status is: " + Status.typeToString(tr.getStatus().getType()));
+                Debug.println("   => TRT: " + this);
+                Debug.println("   => Node Ref: " + node);
+                Debug.println("   => Node path: " + getRootRelativePath(node));
+                Debug.println("   => Index in node: " + index);
+            }   // debug
+
+            if (index == -1) {
+                // insert was ignored for some reason
+            }
+            else if (oldTR != null && oldTR != tr) {
+                // handover known info if new tr is minimal
+                if (tr.isShrunk()) {
+                    try {
+                        TestDescription desc = oldTR.getDescription();
+                        if (desc != null)
+                            tr.setTestDescription(desc);
+                    }
+                    catch (TestResult.Fault f) {
+                        // give up
+                    }
+                }
+
+                notifyRemoveLeaf(rec, oldTR, index);
+                notifyNewLeaf(rec, tr, index);
+            }
+            else
+                notifyChangeLeaf(rec, tr, index, oldTR);
+        }
+
+        return oldTR;
+    }
+
+    /**
+     * Get the path from the root to the given node, scanning each node on the
+     * way if needed, as would be done when walking down the tree to the node.
+     *
+     * @param node The node to generate the path for.
+     * @param suppressScan Request that test finder activity be suppressed.
+     * @return The path from the root, including the given node.
+     */
+    private TRT_TreeNode[] getNodePath(TRT_TreeNode node, boolean suppressScan) {
+        TreeNode[] path = getObjectPath(node);
+        TRT_TreeNode[] result = new TRT_TreeNode[path.length];
+        for (int i = 0; i < path.length; i++) {
+            result[i] = (TRT_TreeNode)(path[i]);
+            if (!suppressScan)
+                result[i].scanIfNeeded();
+        }
+        return result;
+    }
+
+    /**
+     * Record a test or node which has been added to the tree, or which
+     * has replaced an existing one, so that it can be found by its path.
+     */
+    void addToIndex(Object o) {
+        if (o instanceof TestResult) {
+            TestResult tr = (TestResult)o;
+            testIndex.put(tr.getWorkRelativePath(), tr);
+        }
+        else if (o instanceof TRT_TreeNode) {
+            TRT_TreeNode tn = (TRT_TreeNode)o;
+            if (!tn.isRoot())
+                nodeIndex.put(getRootRelativePath(tn), tn);
+        }
+    }
+
+    /**
+     * Forget a test or node which has been removed from the tree.
+     */
+    void removeFromIndex(Object o) {
+        if (o instanceof TestResult) {
+            TestResult tr = (TestResult)o;
+            testIndex.remove(tr.getWorkRelativePath(), tr);
+        }
+        else if (o instanceof TRT_TreeNode) {
+            TRT_TreeNode tn = (TRT_TreeNode)o;
+            if (!tn.isRoot())
+                nodeIndex.remove(getRootRelativePath(tn), tn);
+        }
+    }
+
     /**
      *
      * @return true if any refreshing was needed, false otherwise.
@@ -2254,6 +2399,11 @@ public class TestResultTable {
     private TRT_TreeNode root;
     private File suiteRoot;
 
+    // the tests and nodes in the tree, indexed by work relative path
+    // and root relative path respectively
+    private final ConcurrentMap testIndex = new ConcurrentHashMap();
+    private final ConcurrentMap nodeIndex = new ConcurrentHashMap();
+
     private static I18NResourceBundle i18n = I18NResourceBundle.getBundleForClass(TestResultTable.class);
 
     // BEGIN INNER CLASSES
@@ -2562,6 +2712,82 @@ public class TestResultTable {
         public abstract boolean isPending(TestResult node);
     }   // TreeIterator
 
+    /**
+     * Defines a parallel alternative to TreeIterator, for clients which
+     * process every selected test and do not depend on the order in which
+     * the tests are found.  The filters are applied and the statistics
+     * gathered in the same way as for a TreeIterator; the filters are
+     * only given one test at a time, so they need not be thread-safe.
+     * @see TestResultTable#getWalker(TestFilter[])
+     */
+    public interface TreeWalker {
+        /**
+         * Receives the tests selected by a TreeWalker.
+         */
+        public interface Visitor {
+            /**
+             * Process a test which has been accepted by the filters.
+             * This method is called from several threads at once, and the
+             * tests are not given in any particular order.
+             * @param tr The selected test.
+             */
+            public abstract void visit(TestResult tr);
+        }
+
+        /**
+         * Visit all the selected tests, returning when they have all been
+         * processed.  Any runtime exception thrown by the visitor is
+         * rethrown here.
+         * @param v The visitor to be given each selected test.
+         */
+        public abstract void walk(Visitor v);
+
+        // --- Statistics info ---
+        /**
+         * Find out how many tests have been run through the filters.
+         * This count includes tests which have been filtered out.
+         * @return The number of tests processed so far.
+         */
+        public abstract int getProcessedCount();
+
+        /**
+         * Find out how many tests were rejected by filters while walking.
+         * @return The number of tests rejected by the filters.
+         * @see TreeIterator#getRejectCount()
+         */
+        public abstract int getRejectCount();
+
+        /**
+         * Should the rejected tests be tracked.  This should be set before
+         * <code>walk()</code> is called.
+         * @param state True to activate this feature, false to disable.
+         * @see TreeIterator#setRecordRejects(boolean)
+         */
+        public abstract void setRecordRejects(boolean state);
+
+        /**
+         * Find out which states the selected tests were in.
+         * @return Indexes refer to those values found in Status
+         * @see TreeIterator#getResultStats()
+         */
+        public abstract int[] getResultStats();
+
+        /**
+         * Find out which filters rejected which tests.  The hashtable has
+         * keys of TestResults, and values which are TestFilters, as for
+         * <code>TreeIterator.getFilterStats()</code>.
+         * @return Table as described or null if rejects have not been recorded.
+         * @see TreeIterator#getFilterStats()
+         */
+        public abstract Hashtable getFilterStats();
+
+        /**
+         * Find out what the effective filters are.
+         * @return Null if there are no active filters.
+         */
+        public abstract TestFilter[] getFilters();
+    }   // TreeWalker
+
     class Updater implements TestResultCache.Observer
     {
         //-----methods from TestResultCache.Observer-----
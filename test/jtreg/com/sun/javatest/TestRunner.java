@@ -29,6 +29,7 @@ package com.sun.javatest;
 import java.util.Iterator;
 
 import com.sun.javatest.util.BackupPolicy;
+import com.sun.javatest.util.VirtualThreads;
 
 /**
  * TestRunner is the abstract base class providing the ability to
@@ -168,6 +169,33 @@ public abstract class TestRunner
     }
 
 
+    /**
+     * Get the highest concurrency supported by this test runner.
+     * The concurrency specified in the parameters for a test run
+     * will be limited to this value.
+     * @return the highest concurrency supported by this test runner
+     * @see #setConcurrency
+     */
+    protected int getMaxConcurrency() {
+        return Parameters.ConcurrencyParameters.MAX_CONCURRENCY;
+    }
+
+    /**
+     * Get the highest concurrency that may be requested for a test run.
+     * This is normally {@link Parameters.ConcurrencyParameters#MAX_CONCURRENCY},
+     * but is much higher if tests are to be run on
+     * {@link VirtualThreads#isEnabled virtual threads}.
+     * Tools which accept a concurrency from the user should check it
+     * against this value.
+     * @return the highest concurrency that may be requested for a test run
+     */
+    public static int getConcurrencyLimit() {
+        if (VirtualThreads.isEnabled())
+            return MAX_VIRTUAL_CONCURRENCY;
+        else
+            return Parameters.ConcurrencyParameters.MAX_CONCURRENCY;
+    }
+
     /**
      * Set the notifier to be used when running the tests.
      * @param notifier the notifier to be used when running the tests
@@ -224,4 +252,6 @@ public abstract class TestRunner
     private ExcludeList excludeList;
     private int concurrency;
     private Harness.Observer notifier;
+
+    static final int MAX_VIRTUAL_CONCURRENCY = 1000;
 }
@@ -570,9 +570,16 @@ public class TestSuite
      * creates a number of test execution threads which each
      * create and run a script for each test obtained from
      * the test runners iterator.
+     * If the system property <code>javatest.testRunner</code> is set to
+     * <code>pooled</code>, or if features provided by the pooled runner
+     * such as virtual threads or adaptive concurrency have been enabled,
+     * the tests are instead run on a fixed pool of worker threads.
      * @return a TestRunner that can be used to run a series of tests
+     * @see PooledTestRunner
      */
     public TestRunner createTestRunner() {
+        if (PooledTestRunner.isRequested())
+            return new PooledTestRunner();
         return new DefaultTestRunner();
     }
 
@@ -0,0 +1,92 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+/**
+ * Derives the timeout for a test from its recorded execution times,
+ * so that a test which hangs can be stopped long before its declared
+ * timeout expires. The timeout is a high percentile of the recorded
+ * times for the test, multiplied by a safety factor, and never more
+ * than the declared timeout. Tests without enough recorded history,
+ * and tests with no declared timeout, keep their declared timeout.
+ * <p>
+ * The policy is enabled by setting the system property
+ * <code>javatest.adaptiveTimeout</code> to <code>true</code>.
+ * The following system properties may be used to tune it:
+ * <dl>
+ * <dt><code>javatest.adaptiveTimeout.percentile</code>
+ * <dd>the percentile of the recorded times to use (default 99)
+ * <dt><code>javatest.adaptiveTimeout.factor</code>
+ * <dd>the safety factor applied to the percentile, as a percentage (default 300)
+ * <dt><code>javatest.adaptiveTimeout.min</code>
+ * <dd>the minimum timeout, in seconds (default 10)
+ * <dt><code>javatest.adaptiveTimeout.minSamples</code>
+ * <dd>the number of recorded times required before the timeout
+ * is adjusted (default 3)
+ * </dl>
+ * @see DurationHistory
+ */
+class TimeoutPolicy
+{
+    private TimeoutPolicy() { }
+
+    /**
+     * Check if adaptive timeouts have been requested.
+     * @return true if adaptive timeouts have been requested
+     */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the timeout for a test.
+     * @param history the recorded execution times of the tests
+     * @param testName the name of the test
+     * @param timeout the declared timeout for the test, in seconds,
+     * or 0 if there is no timeout
+     * @return the timeout to be used for the test, in seconds
+     */
+    static int getTimeout(DurationHistory history, String testName, int timeout) {
+        if (!enabled || timeout <= 0 || history.getSamples(testName).length < minSamples)
+            return timeout;
+
+        long p = history.getPercentile(testName, percentile);
+        long t = Math.max(minTimeout, (p * factor / 100 + 999) / 1000);
+        return (int) Math.min(t, timeout);
+    }
+
+    private static final boolean enabled =
+        Boolean.getBoolean("javatest.adaptiveTimeout");
+    private static final int percentile =
+        Integer.getInteger("javatest.adaptiveTimeout.percentile", 99).intValue();
+    private static final long factor =
+        Integer.getInteger("javatest.adaptiveTimeout.factor", 300).intValue();
+    private static final long minTimeout =
+        Integer.getInteger("javatest.adaptiveTimeout.min", 10).intValue();
+    private static final int minSamples =
+        Integer.getInteger("javatest.adaptiveTimeout.minSamples", 3).intValue();
+}
@@ -710,6 +710,66 @@ public class WorkDirectory
         return testResultTable;
     }
 
+    /**
+     * Get the recorded execution times of the tests in this work directory.
+     * The history is read from the work directory the first time it is
+     * requested, and the same object is returned thereafter, so that
+     * times recorded during a test run are immediately visible to all
+     * users of the history.
+     * @return the recorded execution times of the tests in this work directory
+     */
+    public synchronized DurationHistory getDurationHistory() {
+        if (durationHistory == null)
+            durationHistory = DurationHistory.open(this);
+
+        return durationHistory;
+    }
+
+    /**
+     * Get the result log in which the results of the tests in this work
+     * directory are stored, if the results are stored in a log rather than
+     * in individual .jtr files. The log is opened the first time it is
+     * requested, and the same object is returned thereafter.
+     * @return the result log for this work directory, or null if the results
+     * are stored in individual .jtr files
+     * @see ResultLog
+     */
+    public synchronized ResultLog getResultLog() {
+        if (!resultLogChecked) {
+            resultLogChecked = true;
+            if (ResultLog.isEnabled(root)) {
+                try {
+                    resultLog = new ResultLog(root);
+                }
+                catch (IOException e) {
+                    log(i18n, "wd.cantOpenResultLog", e);
+                }
+            }
+        }
+
+        return resultLog;
+    }
+
+    /**
+     * Get the writer to be used to write the results of tests in this work
+     * directory on a separate thread, if there is one.
+     * @return the writer to be used to write the results of tests, or null
+     * if results should be written directly
+     */
+    synchronized ResultWriter getResultWriter() {
+        return resultWriter;
+    }
+
+    /**
+     * Set the writer to be used to write the results of tests in this work
+     * directory on a separate thread.
+     * @param w the writer to be used to write the results of tests, or null
+     * if results should be written directly
+     */
+    synchronized void setResultWriter(ResultWriter w) {
+        resultWriter = w;
+    }
+
     /**
      * Set a test result table containing the test descriptions for the tests in this
      * test suite.
@@ -826,14 +886,37 @@ public class WorkDirectory
 
         File f = (path.length() == 0 ? root : getFile(path));
 
+        // a single test may have files with the complete output of streams
+        // which overflowed, whether or not its results are in a .jtr file
+        if (path.endsWith(TestResult.EXTN)) {
+            String p = f.getPath();
+            File prefix = new File(p.substring(0, p.length() - TestResult.EXTN.length()));
+            result = TestResult.deleteSpilledOutput(prefix);
+        }
+
+        ResultLog rl = getResultLog();
+        if (rl != null) {
+            String[] removed;
+            try {
+                removed = rl.remove(path);
+            }
+            catch (IOException e) {
+                throw new PurgeFault(i18n, "wd.cantPurgeResultLog", f, e);
+            }
+            for (int i = 0; i < removed.length; i++)
+                testResultTable.resetTest(removed[i]);
+            if (!f.exists())
+                return (removed.length > 0 && result);
+        }
+
         if (!f.exists())
             return false;
 
         if (f.isDirectory())
-            result = recursivePurge(f, path);
+            result &= recursivePurge(f, path);
         else {
             // single test
-            result = f.delete();
+            result &= f.delete();
             testResultTable.resetTest(path);
         }
 
@@ -927,6 +1010,10 @@ public class WorkDirectory
     private String testSuiteID;
     private int testCount = -1;
     private TestResultTable testResultTable;
+    private DurationHistory durationHistory;
+    private ResultLog resultLog;
+    private boolean resultLogChecked;
+    private ResultWriter resultWriter;
     private File jtData;
     private String logFileName;
     private LogFile logFile;
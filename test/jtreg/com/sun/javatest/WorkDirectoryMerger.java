@@ -0,0 +1,192 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.sun.javatest.util.BackupPolicy;
+import com.sun.javatest.util.I18NResourceBundle;
+
+/**
+ * Merges the results in one or more work directories into another,
+ * such as when the tests for a test suite have been divided into shards
+ * with a {@link ShardFilter}, and run in separate work directories.
+ * The results are copied into the target work directory and entered
+ * into its test result table, so that a single report can be generated
+ * for all the tests. The recorded execution times of the tests are
+ * merged as well, so that the target work directory can provide the
+ * history for a later sharded run.
+ * <p>
+ * If a test has results in more than one work directory, the most
+ * recent results are used.
+ */
+public class WorkDirectoryMerger
+{
+    /**
+     * Create an object to merge results into a work directory.
+     * @param target the work directory into which to merge results
+     */
+    public WorkDirectoryMerger(WorkDirectory target) {
+        this.target = target;
+        history = target.getDurationHistory();
+    }
+
+    /**
+     * Merge the results from another work directory into the target
+     * work directory. Results which cannot be read are reported in the
+     * log for the target work directory, and are otherwise ignored.
+     * @param source the work directory from which to merge results
+     * @return the number of results that were merged
+     * @throws IOException if there is a problem copying a result
+     */
+    public int merge(WorkDirectory source) throws IOException {
+        DurationHistory sourceHistory = DurationHistory.open(source);
+        TestResultTable trt = target.getTestResultTable();
+        int count = 0;
+
+        ResultLog sourceLog = source.getResultLog();
+        ResultLog targetLog = target.getResultLog();
+        String[] paths = listResults(source.getRoot(), sourceLog);
+        for (int i = 0; i < paths.length; i++) {
+            File f = source.getFile(paths[i]);
+            TestResult tr;
+            try {
+                tr = new TestResult(source, paths[i]);
+            }
+            catch (TestResult.Fault e) {
+                target.log(i18n, "merge.cantRead", new Object[] { f, e.getMessage() });
+                continue;
+            }
+
+            String path = tr.getWorkRelativePath();
+            TestResult prev = trt.lookup(path);
+            if (prev != null
+                && prev.getStatus().getType() != Status.NOT_RUN
+                && prev.getEndTime() >= tr.getEndTime())
+                continue;
+
+            File dest = target.getFile(path.replace('/', File.separatorChar));
+            if (sourceLog == null && targetLog == null)
+                copy(f, dest);
+            else
+                tr.writeResults(target, BackupPolicy.noBackups());
+
+            try {
+                trt.update(new TestResult(target, path));
+            }
+            catch (TestResult.Fault e) {
+                target.log(i18n, "merge.cantRead", new Object[] { dest, e.getMessage() });
+                continue;
+            }
+
+            long[] samples = sourceHistory.getSamples(tr.getTestName());
+            if (samples.length > 0)
+                history.setSamples(tr.getTestName(), samples);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Save the merged duration history in the target work directory.
+     * This should be called after all the work directories have been merged.
+     * @throws IOException if there is a problem writing the history
+     */
+    public void finish() throws IOException {
+        history.save();
+    }
+
+    /**
+     * Get the work-relative paths of the results in a work directory,
+     * whether in .jtr files or in a result log.
+     */
+    private static String[] listResults(File root, ResultLog log) {
+        Set s = new TreeSet();
+        listResultFiles(root, "", s);
+        if (log != null)
+            s.addAll(Arrays.asList(log.getPaths()));
+        return (String[]) (s.toArray(new String[s.size()]));
+    }
+
+    private static void listResultFiles(File dir, String prefix, Set s) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+
+        for (int i = 0; i < files.length; i++) {
+            File f = files[i];
+            if (f.isDirectory()) {
+                // ignore the system files and test scratch files
+                if (prefix.length() == 0 && (f.getName().equals(JTDATA) || f.getName().equals(SCRATCH)))
+                    continue;
+                listResultFiles(f, prefix + f.getName() + "/", s);
+            }
+            else if (TestResult.isResultFile(f))
+                s.add(prefix + f.getName());
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        File dir = to.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs())
+            throw new IOException(i18n.getString("merge.cantCreateDir", dir));
+
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buf = new byte[4096];
+                int n;
+                while ((n = in.read(buf)) != -1)
+                    out.write(buf, 0, n);
+            }
+            finally {
+                out.close();
+            }
+        }
+        finally {
+            in.close();
+        }
+        to.setLastModified(from.lastModified());
+    }
+
+    private final WorkDirectory target;
+    private final DurationHistory history;
+
+    private static final String JTDATA = "jtData";
+    private static final String SCRATCH = "scratch";
+    private static I18NResourceBundle i18n = I18NResourceBundle.getBundleForClass(WorkDirectoryMerger.class);
+}
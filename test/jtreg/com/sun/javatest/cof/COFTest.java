@@ -45,6 +45,7 @@ import com.sun.javatest.Status;
 import com.sun.javatest.TestResult;
 import com.sun.javatest.TestResult.ReloadFault;
 import com.sun.javatest.TestResult.ResultFileNotFoundFault;
+import com.sun.javatest.WorkDirectory;
 
 /*import javax.xml.bind.annotation.XmlAccessType;
  import javax.xml.bind.annotation.XmlAccessorType;
@@ -217,14 +218,23 @@ public class COFTest extends COFItem {
                 testcases = new COFTestCases();
                 int sCount = tr.getSectionCount();
                 if (sCount == 0 && tr.getStatus().getType() != Status.NOT_RUN ) {
+                        // reload through the work directory, if possible, in
+                        // case the results are stored in its result log
+                        WorkDirectory wd = (tr.getParent() == null ? null
+                                            : tr.getParent().getEnclosingTable().getWorkDirectory());
                         try {
-                                tr = new TestResult(new File(cofData.get("workdir") + File.separator + tr.getWorkRelativePath()));
+                                if (wd != null)
+                                        tr = new TestResult(wd, tr.getWorkRelativePath());
+                                else
+                                        tr = new TestResult(new File(cofData.get("workdir") + File.separator + tr.getWorkRelativePath()));
                                 sCount = tr.getSectionCount();
                         } catch (ResultFileNotFoundFault e) {
                                 // warning is out from somewhere else, but again
                                 System.err.println(e.getMessage());
                         } catch (ReloadFault e) {
                                 System.err.println(tr.getFile());
+                        } catch (TestResult.Fault e) {
+                                System.err.println(e.getMessage());
                         }
                 }
                 for (int i = 0; i < sCount; i++) {
@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.regex.Pattern;
 
+import com.sun.javatest.ResultLog;
 import com.sun.javatest.Status;
 import com.sun.javatest.TestResult;
 import com.sun.javatest.TestResultTable;
@@ -68,6 +69,7 @@ class COFTestSuite extends COFItem {
         COFTestSuite(File dir) {
                 trt = new TestResultTable();
                 scan(dir);
+                scanLog(dir);
                 legacyMode = true;
         }
 
@@ -76,6 +78,7 @@ class COFTestSuite extends COFItem {
                 trt = new TestResultTable();
                 name = cofData.get("testsuites.testsuite.name");
                 scan(dir);
+                scanLog(dir);
                 legacyMode = true;
         }
 
@@ -116,6 +119,37 @@ class COFTestSuite extends COFItem {
                 }
         }
 
+        /**
+         * Read the results stored in the result log of a work directory,
+         * if it has one.  These take precedence over any .jtr files.
+         */
+        void scanLog(File dir) {
+                if (!ResultLog.exists(dir))
+                        return;
+
+                // the log is kept open, since the results are reloaded
+                // from it when they are written
+                ResultLog log;
+                try {
+                        log = new ResultLog(dir);
+                } catch (IOException e) {
+                        System.err.println(i18n.getString("ts.badLog",
+                                        new Object[] { dir, e.getMessage() }));
+                        return;
+                }
+
+                String[] paths = log.getPaths();
+                for (int i = 0; i < paths.length; i++) {
+                        File f = new File(dir, paths[i].replace('/', File.separatorChar));
+                        try {
+                                trt.update(new TestResult(f, log));
+                        } catch (TestResult.Fault e) {
+                                System.err.println(i18n.getString("ts.badTest",
+                                                new Object[] { f, e.getMessage() }));
+                        }
+                }
+        }
+
         void write(XMLWriter out) throws IOException {
 
                 out.startTag("testsuite");
@@ -39,6 +39,7 @@ import com.sun.javatest.Parameters.ConcurrencyParameters;
 import com.sun.javatest.Parameters.MutableConcurrencyParameters;
 import com.sun.javatest.Parameters.MutableTimeoutFactorParameters;
 import com.sun.javatest.Parameters.TimeoutFactorParameters;
+import com.sun.javatest.TestRunner;
 import com.sun.javatest.tool.UIFactory;
 
 /**
@@ -68,10 +69,10 @@ class CE_ExecutionPane extends CE_StdPane
         /*
         try {
             int c = Integer.parseInt(cs);
-            if (c < ConcurrencyParameters.MIN_CONCURRENCY || c > ConcurrencyParameters.MAX_CONCURRENCY) {
+            if (c < ConcurrencyParameters.MIN_CONCURRENCY || c > TestRunner.getConcurrencyLimit()) {
                 uif.showError("ce.exec.badRangeConcurrency",
                               new Object[] { new Integer(ConcurrencyParameters.MIN_CONCURRENCY),
-                                             new Integer(ConcurrencyParameters.MAX_CONCURRENCY) });
+                                             new Integer(TestRunner.getConcurrencyLimit()) });
                 return false;
             }
         }
@@ -88,10 +89,10 @@ class CE_ExecutionPane extends CE_StdPane
 
             if (num != null && (pos.getIndex() == cs.length())) {
                 int c = num.intValue();
-                if (c < ConcurrencyParameters.MIN_CONCURRENCY || c > ConcurrencyParameters.MAX_CONCURRENCY) {
+                if (c < ConcurrencyParameters.MIN_CONCURRENCY || c > TestRunner.getConcurrencyLimit()) {
                     uif.showError("ce.exec.badRangeConcurrency",
                                   new Object[] { new Integer(ConcurrencyParameters.MIN_CONCURRENCY),
-                                                 new Integer(ConcurrencyParameters.MAX_CONCURRENCY) });
+                                                 new Integer(TestRunner.getConcurrencyLimit()) });
                     return false;
                 }
             }
@@ -31,6 +31,7 @@ import com.sun.interview.IntQuestion;
 import com.sun.interview.Interview;
 import com.sun.interview.Question;
 import com.sun.javatest.Parameters;
+import com.sun.javatest.TestRunner;
 
 /**
  * This interview collects the concurrency parameter. It is normally used as
@@ -80,7 +81,7 @@ public class ConcurrencyInterview
     private IntQuestion qConcurrency = new IntQuestion(this, "concurrency") {
         {
             setBounds(Parameters.ConcurrencyParameters.MIN_CONCURRENCY,
-                      Parameters.ConcurrencyParameters.MAX_CONCURRENCY);
+                      TestRunner.getConcurrencyLimit());
         }
 
         protected Question getNext() {
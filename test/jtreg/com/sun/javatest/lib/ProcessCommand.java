@@ -40,6 +40,7 @@ import java.util.Hashtable;
 import com.sun.javatest.Command;
 import com.sun.javatest.Status;
 import com.sun.javatest.util.StringArray;
+import com.sun.javatest.util.VirtualThreads;
 
 /**
  * A Command to execute an arbitrary OS command.
@@ -366,9 +367,11 @@ public class ProcessCommand extends Command
 
 
     /**
-     * A thread to copy an input stream to an output stream
+     * A task to copy an input stream to an output stream.
+     * The copy is done on a virtual thread if they have been enabled.
+     * @see VirtualThreads
      */
-    class StreamCopier extends Thread
+    class StreamCopier implements Runnable
     {
         /**
          * Create one.
@@ -376,14 +379,21 @@ public class ProcessCommand extends Command
          * @param out   the log to copy to
          */
         StreamCopier(Reader from, PrintWriter to) {
-            super(Thread.currentThread().getName() + "_StreamCopier_" + (serial++));
+            name = Thread.currentThread().getName() + "_StreamCopier_" + (serial++);
             in = new BufferedReader(from);
             out = to;
             lastStatusLine = null;
         }
 
         /**
-         * Set the thread going.
+         * Start a thread to perform the copy.
+         */
+        public void start() {
+            VirtualThreads.newThread(name, this).start();
+        }
+
+        /**
+         * Copy the stream.
          */
         public void run() {
             //System.out.println("Copying stream");
@@ -444,6 +454,7 @@ public class ProcessCommand extends Command
         }
 
 
+        private String name;
         private BufferedReader in;
         private PrintWriter out;
         private String lastStatusLine;
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.javatest.regtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sun.javatest.Harness;
+import com.sun.javatest.Parameters;
+import com.sun.javatest.Status;
+import com.sun.javatest.TestDescription;
+import com.sun.javatest.TestFilter;
+import com.sun.javatest.TestResult;
+import com.sun.javatest.TestResultTable;
+import com.sun.javatest.WorkDirectory;
+import com.sun.javatest.util.I18NResourceBundle;
+
+/**
+ * A test filter that rejects tests which passed when they were last run,
+ * and whose {@link Fingerprinter fingerprint} has not changed since then.
+ * The fingerprints of the tests that pass are recorded in the work
+ * directory by the {@link #getRecorder recorder} for the filter.
+ * <p>
+ * The filter compares fingerprints with those recorded before the test
+ * run started, so that tests which are run are still accepted by the
+ * filter after they have passed, such as when the report is written.
+ */
+public class ChangedTestFilter extends TestFilter {
+    /**
+     * Create a filter for the tests in a work directory, using the
+     * fingerprints recorded in the work directory.
+     * @param wd the work directory
+     * @param fingerprinter the object used to compute the fingerprints of tests
+     * @return the filter
+     */
+    static ChangedTestFilter open(WorkDirectory wd, Fingerprinter fingerprinter) {
+        ChangedTestFilter f = new ChangedTestFilter(wd, fingerprinter);
+        File file = wd.getSystemFile(FILENAME);
+        if (file.exists()) {
+            try {
+                f.read(file);
+            } catch (IOException e) {
+                wd.log(i18n, "changedFilter.cantRead", new Object[] { file, e });
+                f.previous.clear();
+            }
+        }
+        f.recorded.putAll(f.previous);
+        return f;
+    }
+
+    private ChangedTestFilter(WorkDirectory wd, Fingerprinter fingerprinter) {
+        workDir = wd;
+        trt = wd.getTestResultTable();
+        this.fingerprinter = fingerprinter;
+    }
+
+    public String getName() {
+        return i18n.getString("changedFilter.name");
+    }
+
+    public String getDescription() {
+        return i18n.getString("changedFilter.description");
+    }
+
+    public String getReason() {
+        return i18n.getString("changedFilter.reason");
+    }
+
+    public boolean accepts(TestDescription td) throws Fault {
+        String name = td.getRootRelativeURL();
+        String fp;
+        try {
+            fp = fingerprinter.getFingerprint(td);
+        } catch (IOException e) {
+            // can't tell if the test has changed, so run it
+            return true;
+        }
+
+        synchronized (current) {
+            current.put(name, fp);
+        }
+
+        if (!fp.equals(previous.get(name)))
+            return true;
+
+        TestResult tr = trt.lookup(td);
+        Status s = (tr == null ? null : tr.getStatus());
+        return (s == null || s.getType() != Status.PASSED);
+    }
+
+    /**
+     * Get an observer which records the fingerprints of the tests that pass,
+     * and saves them in the work directory at the end of the test run.
+     * @return an observer to be registered with the harness
+     */
+    Harness.Observer getRecorder() {
+        return new Harness.Observer() {
+            public void startingTestRun(Parameters params) { }
+
+            public void startingTest(TestResult tr) { }
+
+            public void finishedTest(TestResult tr) {
+                String name = tr.getTestName();
+                String fp;
+                synchronized (current) {
+                    fp = current.get(name);
+                }
+                synchronized (recorded) {
+                    if (fp != null && tr.getStatus().getType() == Status.PASSED)
+                        recorded.put(name, fp);
+                    else
+                        recorded.remove(name);
+                }
+            }
+
+            public void stoppingTestRun() { }
+
+            public void finishedTesting() {
+                try {
+                    save();
+                } catch (IOException e) {
+                    workDir.log(i18n, "changedFilter.cantWrite",
+                                new Object[] { workDir.getSystemFile(FILENAME), e });
+                }
+            }
+
+            public void finishedTestRun(boolean allOK) { }
+
+            public void error(String msg) { }
+        };
+    }
+
+    private void read(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(i18n.getString("changedFilter.badFile"));
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String name = in.readUTF();
+                String fp = in.readUTF();
+                previous.put(name, fp);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void save() throws IOException {
+        // write to a temporary file, then rename it, so that a concurrent
+        // reader never sees a partially written file
+        File f = workDir.getSystemFile(FILENAME);
+        File tmp = workDir.getSystemFile(FILENAME + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            synchronized (recorded) {
+                out.writeInt(MAGIC);
+                out.writeInt(recorded.size());
+                for (Map.Entry<String, String> e: recorded.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeUTF(e.getValue());
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (f.exists() && !f.delete())
+            throw new IOException(i18n.getString("changedFilter.cantDelete", f));
+        if (!tmp.renameTo(f))
+            throw new IOException(i18n.getString("changedFilter.cantRename", new Object[] { tmp, f }));
+    }
+
+    private final WorkDirectory workDir;
+    private final TestResultTable trt;
+    private final Fingerprinter fingerprinter;
+    // the fingerprints of the tests that passed, as of the start of the run
+    private final Map<String, String> previous = new HashMap<String, String>();
+    // the fingerprints of the tests, as of when they were selected
+    private final Map<String, String> current = new HashMap<String, String>();
+    // the fingerprints of the tests that passed, to be saved at the end of the run
+    private final Map<String, String> recorded = new HashMap<String, String>();
+
+    private static final String FILENAME = "fingerprints.jtw";
+    private static final int MAGIC = 0x4A544631;   // "JTF1"
+    private static final I18NResourceBundle i18n = I18NResourceBundle.getBundleForClass(ChangedTestFilter.class);
+}
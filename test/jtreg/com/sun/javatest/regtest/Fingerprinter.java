@@ -0,0 +1,224 @@
+/*
+ * Copyright 2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.javatest.regtest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.javatest.TestDescription;
+
+/**
+ * Computes a fingerprint of the inputs to a test: the files in the
+ * directory containing the test, since they may be compiled implicitly
+ * with it, the files in its library directories, the options and
+ * environment variables used to run it, and the identity of the JDK
+ * being tested. If the fingerprint of a test is unchanged, the test
+ * would be expected to give the same result if it were run again.
+ * <p>
+ * The digests of directories are cached, since many tests share the same
+ * directory or libraries, so files should not be modified while tests
+ * are being run.
+ */
+class Fingerprinter {
+    Fingerprinter(RegressionParameters params) {
+        this.params = params;
+    }
+
+    /**
+     * Get the fingerprint for a test.
+     * @param td the test
+     * @return the fingerprint for the test, as a string of hex digits
+     * @throws IOException if there is a problem reading the test's files
+     */
+    String getFingerprint(TestDescription td) throws IOException {
+        MessageDigest md = newDigest();
+        md.update(getEnvDigest());
+
+        File testDir = td.getFile().getParentFile();
+        md.update(getDirDigest(testDir, false));
+        for (File f: td.getSourceFiles()) {
+            // the source files are normally in testDir, but need not be
+            update(md, f.getName());
+            if (!testDir.equals(f.getAbsoluteFile().getParentFile()))
+                updateFile(md, f);
+        }
+
+        String libs = td.getParameter("library");
+        if (libs != null) {
+            for (String lib: StringArray.splitWS(libs)) {
+                update(md, lib);
+                md.update(getDirDigest(new File(testDir, lib), true));
+            }
+        }
+
+        return toHex(md.digest());
+    }
+
+    /**
+     * Get the digest of the environment in which tests are run, which is the
+     * same for all the tests in a test run.
+     */
+    private synchronized byte[] getEnvDigest() {
+        if (envDigest == null) {
+            MessageDigest md = newDigest();
+            update(md, params.getJavaFullVersion());
+            JDK jdk = params.getJDK();
+            if (jdk != null) {
+                // a rebuilt JDK may well report the same version
+                File home = jdk.getAbsoluteFile();
+                for (String p: JDK_FILES)
+                    updateStamp(md, new File(home, p));
+            }
+            update(md, String.valueOf(params.isOtherJVM()));
+            update(md, String.valueOf(params.getIgnoreKind()));
+            updateList(md, params.getTestVMOptions());
+            updateList(md, params.getTestCompilerOptions());
+            updateList(md, params.getTestJavaOptions());
+            String[] envVars = params.getEnvVars();
+            if (envVars != null)
+                updateList(md, Arrays.asList(envVars));
+            envDigest = md.digest();
+        }
+        return envDigest;
+    }
+
+    /**
+     * Get the digest of the names and contents of the files in a directory,
+     * and optionally, its subdirectories.
+     */
+    private byte[] getDirDigest(File dir, boolean recursive) throws IOException {
+        String key = dir.getPath() + (recursive ? "/**" : "/*");
+        synchronized (dirDigests) {
+            byte[] d = dirDigests.get(key);
+            if (d != null)
+                return d;
+        }
+
+        MessageDigest md = newDigest();
+        updateDir(md, dir, "", recursive);
+        byte[] d = md.digest();
+
+        synchronized (dirDigests) {
+            dirDigests.put(key, d);
+        }
+        return d;
+    }
+
+    private void updateDir(MessageDigest md, File dir, String prefix, boolean recursive)
+            throws IOException {
+        String[] names = dir.list();
+        if (names == null) {
+            // a library may also be a single file
+            if (dir.isFile())
+                updateFile(md, dir);
+            return;
+        }
+
+        Arrays.sort(names);
+        for (String name: names) {
+            File f = new File(dir, name);
+            if (f.isDirectory()) {
+                if (recursive)
+                    updateDir(md, f, prefix + name + "/", true);
+            } else {
+                update(md, prefix + name);
+                updateFile(md, f);
+            }
+        }
+    }
+
+    private static void updateFile(MessageDigest md, File f) throws IOException {
+        if (!f.exists()) {
+            md.update((byte) 0);
+            return;
+        }
+
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1)
+                md.update(buf, 0, n);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void updateStamp(MessageDigest md, File f) {
+        update(md, f.getName() + ":" + f.length() + ":" + f.lastModified());
+    }
+
+    private static void updateList(MessageDigest md, List<String> list) {
+        if (list == null)
+            return;
+        for (String s: list)
+            update(md, s);
+    }
+
+    private static void update(MessageDigest md, String s) {
+        try {
+            md.update(String.valueOf(s).getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new Error(e); // UTF-8 is always supported
+        }
+        md.update((byte) 0);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error(e); // SHA-1 is always supported
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b: bytes) {
+            sb.append(HEX_DIGITS[(b >> 4) & 0xf]);
+            sb.append(HEX_DIGITS[b & 0xf]);
+        }
+        return sb.toString();
+    }
+
+    private final RegressionParameters params;
+    private byte[] envDigest;
+    private final Map<String, byte[]> dirDigests = new HashMap<String, byte[]>();
+
+    private static final String[] JDK_FILES = {
+        "bin/java", "jre/lib/rt.jar", "lib/tools.jar", "lib/modules"
+    };
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+}
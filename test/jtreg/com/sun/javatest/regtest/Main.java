@@ -50,6 +50,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -63,13 +64,16 @@ import com.sun.javatest.InterviewParameters;
 import com.sun.javatest.JavaTestSecurityManager;
 import com.sun.javatest.Parameters;
 import com.sun.javatest.ProductInfo;
+import com.sun.javatest.ShardFilter;
 import com.sun.javatest.Status;
 import com.sun.javatest.TestEnvironment;
 import com.sun.javatest.TestFilter;
 import com.sun.javatest.TestResult;
 import com.sun.javatest.TestResultTable;
+import com.sun.javatest.TestRunner;
 import com.sun.javatest.TestSuite;
 import com.sun.javatest.WorkDirectory;
+import com.sun.javatest.WorkDirectoryMerger;
 import com.sun.javatest.exec.ExecToolManager;
 import com.sun.javatest.httpd.HttpdServer;
 import com.sun.javatest.httpd.PageGenerator;
@@ -226,6 +230,13 @@ public class Main {
             }
         },
 
+        new Option(STD, MAIN, "", "conc", "concurrency") {
+            public void process(String opt, String arg) {
+                concurrencyArg = arg;
+                childArgs.add(opt);
+            }
+        },
+
         new Option(STD, MAIN, "", "timeout", "timeoutFactor") {
             public void process(String opt, String arg) {
                 timeoutFactorArg = arg;
@@ -233,6 +244,19 @@ public class Main {
             }
         },
 
+        new Option(STD, MAIN, "", "retry") {
+            public void process(String opt, String arg) throws BadArgs {
+                try {
+                    retryArg = Integer.parseInt(arg);
+                } catch (NumberFormatException e) {
+                    throw new BadArgs(i18n, "main.badRetry", arg);
+                }
+                if (retryArg < 0)
+                    throw new BadArgs(i18n, "main.badRetry", arg);
+                childArgs.add(opt);
+            }
+        },
+
         new Option(STD, MAIN, "", "dir") {
             public void process(String opt, String arg) {
                 baseDirArg = new File(arg);
@@ -288,6 +312,14 @@ public class Main {
             }
         },
 
+        new Option(STD, MAIN, null, "merge") {
+            public void process(String opt, String arg) {
+                List<File> files = pathToFiles(arg);
+                mergeArgs.addAll(files);
+                childArgs.add("-merge:" + filesToAbsolutePath(files));
+            }
+        },
+
         new Option(NONE, MAIN, null, "g", "gui") {
             public void process(String opt, String arg) {
                 guiFlag = true;
@@ -374,6 +406,27 @@ public class Main {
             }
         },
 
+        new Option(NONE, SELECT, null, "incremental") {
+            public void process(String opt, String arg) {
+                incrementalFlag = true;
+                childArgs.add(opt);
+            }
+        },
+
+        new Option(STD, SELECT, null, "shard") {
+            public void process(String opt, String arg) {
+                shardArg = arg;
+                childArgs.add(opt);
+            }
+        },
+
+        new Option(STD, SELECT, null, "shardHistory") {
+            public void process(String opt, String arg) {
+                shardHistoryArg = new File(arg);
+                childArgs.add("-shardHistory:" + shardHistoryArg.getAbsolutePath());
+            }
+        },
+
         new Option(NONE, MODE, "svm-ovm", "ovm", "othervm") {
             public void process(String opt, String arg) {
                 sameJVMFlag = false;
@@ -699,6 +752,11 @@ public class Main {
         if (sameJVMFlag && !testJavaOpts.isEmpty())
             throw new Fault(i18n, "main.cant.mix.samevm.java.options");
 
+        // tests run in the same VM share its state, such as
+        // System.out and the system properties
+        if (sameJVMFlag && concurrencyArg != null && !concurrencyArg.trim().equals("1"))
+            throw new Fault(i18n, "main.cant.mix.samevm.concurrency");
+
         if (jdk == null) {
             String s = null;
             if (!sameJVMFlag)
@@ -793,6 +851,9 @@ public class Main {
 
         checkLockFiles(params.getWorkDirectory().getRoot(), "start");
 
+        if (mergeArgs.size() > 0)
+            mergeWorkDirs(params);
+
         Harness.setClassDir(ProductInfo.getJavaTestClassDir());
 
         // Allow keywords to begin with a numeric
@@ -1204,6 +1265,72 @@ public class Main {
         }
     }
 
+    /**
+     * Create a filter to select the tests in the shard given by the -shard
+     * option. The shards are balanced using the duration history in the
+     * directory given by the -shardHistory option. Without that option, the
+     * tests are assigned by a hash of their names: the history in each
+     * shard's own work directory only covers the tests that shard ran, so
+     * the shards would not agree on the assignment.
+     */
+    private ShardFilter createShardFilter(TestSuite ts)
+            throws BadArgs, Fault {
+        int index, count;
+        try {
+            int sep = shardArg.indexOf('/');
+            if (sep == -1)
+                throw new BadArgs(i18n, "main.badShard", shardArg);
+            index = Integer.parseInt(shardArg.substring(0, sep).trim());
+            count = Integer.parseInt(shardArg.substring(sep + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new BadArgs(i18n, "main.badShard", shardArg);
+        }
+        if (count < 1 || index < 1 || index > count)
+            throw new BadArgs(i18n, "main.badShard", shardArg);
+
+        if (shardHistoryArg == null)
+            return new ShardFilter(index, count, null);
+
+        WorkDirectory hwd;
+        try {
+            hwd = WorkDirectory.open(shardHistoryArg, ts);
+        } catch (FileNotFoundException e) {
+            throw new Fault(i18n, "main.cantOpenWorkDir", shardHistoryArg, e);
+        } catch (WorkDirectory.Fault e) {
+            throw new Fault(i18n, "main.cantOpenWorkDir", shardHistoryArg, e.getMessage());
+        }
+
+        return new ShardFilter(index, count, hwd.getDurationHistory());
+    }
+
+    /**
+     * Merge the results in the work directories given by the -merge option
+     * into the work directory for this run.
+     */
+    private void mergeWorkDirs(RegressionParameters params) throws Fault {
+        WorkDirectory wd = params.getWorkDirectory();
+        wd.getTestResultTable().waitUntilReady();
+        WorkDirectoryMerger m = new WorkDirectoryMerger(wd);
+        for (File f: mergeArgs) {
+            try {
+                WorkDirectory src = WorkDirectory.open(f, wd.getTestSuite());
+                int n = m.merge(src);
+                out.println(i18n.getString("main.merged", new Object[] { n, f }));
+            } catch (FileNotFoundException e) {
+                throw new Fault(i18n, "main.cantOpenWorkDir", f, e);
+            } catch (WorkDirectory.Fault e) {
+                throw new Fault(i18n, "main.cantOpenWorkDir", f, e.getMessage());
+            } catch (IOException e) {
+                throw new Fault(i18n, "main.cantMerge", f, e);
+            }
+        }
+        try {
+            m.finish();
+        } catch (IOException e) {
+            throw new Fault(i18n, "main.cantMerge", wd.getRoot(), e);
+        }
+    }
+
     private static List<File> pathToFiles(String path) {
         List<File> files = new ArrayList<File>();
         for (String f: path.split(File.pathSeparator)) {
@@ -1313,12 +1440,25 @@ public class Main {
                 rp.setPriorStatusValues(b);
             }
 
+            if (shardArg != null)
+                rp.setShardFilter(createShardFilter(testSuite));
+
+            if (incrementalFlag) {
+                changedTestFilter = ChangedTestFilter.open(workDir, new Fingerprinter(rp));
+                rp.setChangedTestFilter(changedTestFilter);
+            }
+
             if (concurrencyArg != null) {
+                int c;
                 try {
-                    rp.setConcurrency(Integer.parseInt(concurrencyArg));
+                    c = Integer.parseInt(concurrencyArg);
                 } catch (NumberFormatException e) {
                     throw new BadArgs(i18n, "main.badConcurrency");
                 }
+                if (c < Parameters.ConcurrencyParameters.MIN_CONCURRENCY
+                    || c > TestRunner.getConcurrencyLimit())
+                    throw new BadArgs(i18n, "main.badConcurrency");
+                rp.setConcurrency(c);
             }
 
             if (timeoutFactorArg != null) {
@@ -1431,6 +1571,10 @@ public class Main {
 
         Harness h = new Harness();
         h.setBackupPolicy(backupPolicy);
+        if (retryArg > 0)
+            h.setMaxAttempts(retryArg + 1);
+        if (changedTestFilter != null)
+            h.addObserver(changedTestFilter.getRecorder());
 
         if (observerClassName != null) {
             try {
@@ -1482,9 +1626,12 @@ public class Main {
 
             if (reportOnlyFlag) {
                 testStats = new int[Status.NUM_STATES];
+                flakyCount = 0;
                 for (Iterator iter = getResultsIterator(params); iter.hasNext(); ) {
                     TestResult tr = (TestResult) (iter.next());
                     testStats[tr.getStatus().getType()]++;
+                    if (isFlaky(tr))
+                        flakyCount++;
                 }
                 ok = (testStats[Status.FAILED] == 0 && testStats[Status.ERROR] ==0);
             } else {
@@ -1596,6 +1743,8 @@ public class Main {
             });
         }
         out.println(msg);
+        if (flakyCount > 0)
+            out.println(i18n.getString("main.testsFlaky", flakyCount));
     }
 
     private BackupPolicy createBackupPolicy() {
@@ -1743,12 +1892,24 @@ public class Main {
     private class BatchObserver implements Harness.Observer {
         public void startingTestRun(Parameters params) {
             testStats = new int[Status.NUM_STATES];
+            flakyCount = 0;
+            retriedStats.clear();
         }
 
         public void startingTest(TestResult tr) { }
 
         public void finishedTest(TestResult tr) {
+            // a test that is retried is only counted once, with its final result
+            if (isRetry(tr)) {
+                Integer prev = retriedStats.put(tr.getTestName(), tr.getStatus().getType());
+                if (prev == null)
+                    prev = Status.FAILED;
+                testStats[prev]--;
+            } else if (tr.getStatus().getType() != Status.PASSED)
+                retriedStats.put(tr.getTestName(), tr.getStatus().getType());
             testStats[tr.getStatus().getType()]++;
+            if (isFlaky(tr))
+                flakyCount++;
         }
 
         public void stoppingTestRun() { }
@@ -1760,6 +1921,24 @@ public class Main {
         public void error(String msg) {
             err.println(i18n.getString("main.error", msg));
         }
+
+        private boolean isRetry(TestResult tr) {
+            try {
+                return (tr.getProperty(TestResult.ATTEMPT) != null);
+            } catch (TestResult.Fault e) {
+                return false;
+            }
+        }
+
+        private Map<String, Integer> retriedStats = new HashMap<String, Integer>();
+    }
+
+    private static boolean isFlaky(TestResult tr) {
+        try {
+            return "true".equals(tr.getProperty(TestResult.FLAKY));
+        } catch (TestResult.Fault e) {
+            return false;
+        }
     }
 
     private void checkLockFiles(File workDir, String msg) {
@@ -1785,8 +1964,13 @@ public class Main {
     private List<String> retainArgs;
     private List<File> excludeListArgs = new ArrayList<File>();
     private String keywordsExprArg;
-    private String concurrencyArg; // not currently exposed in any way
+    private String shardArg;
+    private File shardHistoryArg;
+    private boolean incrementalFlag;
+    private ChangedTestFilter changedTestFilter;
+    private String concurrencyArg;
     private String timeoutFactorArg;
+    private int retryArg;
     private String priorStatusValuesArg;
     private File reportDirArg;
     private List<File> testFileArgs = new ArrayList<File>();
@@ -1796,6 +1980,7 @@ public class Main {
 
     // these args are jtreg extras
     private File baseDirArg;
+    private List<File> mergeArgs = new ArrayList<File>();
     private boolean sameJVMFlag;
     private List<String> sameJVMSafeDirs;
     private JDK jdk;
@@ -1821,6 +2006,7 @@ public class Main {
     private List<String> childArgs = new ArrayList<String>();
 
     private int[] testStats;
+    private int flakyCount;
 
     private static final String AUTOMATIC = "!manual";
     private static final String MANUAL    = "manual";
@@ -40,7 +40,9 @@ import com.sun.javatest.InterviewParameters;
 import com.sun.javatest.TestEnvironment;
 import com.sun.javatest.Parameters;
 import com.sun.javatest.ProductInfo;
+import com.sun.javatest.ShardFilter;
 import com.sun.javatest.Status;
+import com.sun.javatest.TestFilter;
 import com.sun.javatest.TestSuite;
 import com.sun.javatest.interview.BasicInterviewParameters;
 import com.sun.javatest.lib.ProcessCommand;
@@ -101,6 +103,45 @@ public class RegressionParameters
         mpsp.setPriorStatusValues(b);
     }
 
+    public void setShardFilter(ShardFilter sf) {
+        shardFilter = sf;
+    }
+
+    public ShardFilter getShardFilter() {
+        return shardFilter;
+    }
+
+    public void setChangedTestFilter(ChangedTestFilter cf) {
+        changedTestFilter = cf;
+    }
+
+    public ChangedTestFilter getChangedTestFilter() {
+        return changedTestFilter;
+    }
+
+    @Override
+    public synchronized TestFilter[] getFilters() {
+        TestFilter[] filters = super.getFilters();
+        // apply the changed test filter last, since it is the most expensive
+        filters = append(filters, shardFilter);
+        filters = append(filters, changedTestFilter);
+        return filters;
+    }
+
+    private static TestFilter[] append(TestFilter[] filters, TestFilter f) {
+        if (f == null)
+            return filters;
+        if (filters == null)
+            return new TestFilter[] { f };
+        TestFilter[] result = new TestFilter[filters.length + 1];
+        System.arraycopy(filters, 0, result, 0, filters.length);
+        result[filters.length] = f;
+        return result;
+    }
+
+    private ShardFilter shardFilter;
+    private ChangedTestFilter changedTestFilter;
+
     //---------------------------------------------------------------------
 
     @Override
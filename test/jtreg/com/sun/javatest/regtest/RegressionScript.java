@@ -233,7 +233,9 @@ public class RegressionScript extends Script
      * per the tag-spec is 120 seconds scaled by a value found in the
      * environment ("javatestTimeoutFactor").
      * The timeout factor is available as both an integer (for backward
-     * compatibility) and a floating point number
+     * compatibility) and a floating point number.
+     * If adaptive timeouts are enabled, the result may be reduced according
+     * to the recorded execution times of the test.
      *
      * @param time The initial timeout which may need to be scaled according
      *             to the provided timeoutFactor.  If the initial timeout is
@@ -255,7 +257,7 @@ public class RegressionScript extends Script
         }
         if (time == 0)
             time = 120;
-        return (int) (time * cacheJavaTestTimeoutFactor);
+        return getAdaptiveTimeout((int) (time * cacheJavaTestTimeoutFactor));
     }
 
     /**
@@ -36,6 +36,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 
 import com.sun.javatest.finder.TagTestFinder;
 import com.sun.javatest.finder.HTMLCommentStream;
@@ -75,7 +76,7 @@ public class RegressionTestFinder extends TagTestFinder
     @Override
     protected void setRoot(File testSuiteRoot) throws Fault {
         super.setRoot(testSuiteRoot = canon(testSuiteRoot));
-        validKeysTable = new ValidKeysTable(testSuiteRoot, rootValidKeys);
+        testPropertiesTable = new TestPropertiesTable(testSuiteRoot, rootValidKeys);
     }
 
     @Override protected void scanFile(File file) {
@@ -151,6 +152,8 @@ public class RegressionTestFinder extends TagTestFinder
                 String oldValue = newTagValues.get("keywords");
                 if (oldValue != null)
                     value = oldValue + " " + value;
+            } else if (name.equals("resource")) {
+                name = "resources";
             } else if (name.equals("test")) {
                 // TagTestFinder.scanFile() removes the "test" name/value pair,
                 // so I don't think that we'll ever get here.  3/13
@@ -169,6 +172,24 @@ public class RegressionTestFinder extends TagTestFinder
             newTagValues.put(name, value);
         }
 
+        // add any exclusive resources and weight given for the directory
+        Set<String> dirResources = testPropertiesTable.getResources(currFile);
+        if (!dirResources.isEmpty()) {
+            Set<String> rr = new TreeSet<String>(dirResources);
+            String tagResources = newTagValues.get("resources");
+            if (tagResources != null)
+                rr.addAll(Arrays.asList(StringArray.splitWS(tagResources)));
+            newTagValues.put("resources", StringArray.join(rr.toArray(new String[rr.size()]), " "));
+        }
+
+        String dirWeight = testPropertiesTable.getWeight(currFile);
+        if (dirWeight != null && newTagValues.get("weight") == null) {
+            if (isDigitString(dirWeight))
+                newTagValues.put("weight", dirWeight);
+            else if (newTagValues.get("error") == null)
+                newTagValues.put("error", PARSE_DIR_WEIGHT_BAD + dirWeight);
+        }
+
         // force more key words based on actions
         String value = newTagValues.get("run");
 
@@ -248,6 +269,10 @@ public class RegressionTestFinder extends TagTestFinder
                 value = parseKey(tagValues, value);
             } else if (name.equals("library")) {
                 value = parseLibrary(tagValues, value);
+            } else if (name.equals("resource")) {
+                value = parseResource(tagValues, value);
+            } else if (name.equals("weight")) {
+                value = parseWeight(tagValues, value);
             }
         } catch (ParseException e) {
             name  = "error";
@@ -338,7 +363,7 @@ public class RegressionTestFinder extends TagTestFinder
     private String parseKey(Map<String,String> tagValues, String value)
         throws ParseException
   {
-        Set<String> validKeys = validKeysTable.getValidKeys(getCurrentFile());
+        Set<String> validKeys = testPropertiesTable.getValidKeys(getCurrentFile());
 
         // make sure that the provided keys are all valid
         if (value.trim().length() != 0) {
@@ -389,6 +414,45 @@ public class RegressionTestFinder extends TagTestFinder
         return newValue.trim();
     }
 
+    /**
+     * Create the list of exclusive resources required by the test.
+     * Multiple resource tags are allowed.
+     *
+     * @param tagValues The map of all of the current tag values.
+     * @param value     The value of the entry currently being processed.
+     * @exception ParseException If the value for the tag does not conform to
+     *            the spec for the tag.
+     * @return    A string which contains the new value for the "resource" tag.
+     */
+    private String parseResource(Map<String,String> tagValues, String value)
+        throws ParseException
+    {
+        if (value.trim().length() == 0)
+            throw new ParseException(PARSE_RESOURCE_EMPTY);
+
+        String newValue = StringArray.join(StringArray.splitWS(value), " ");
+        String oldValue = tagValues.get("resource");
+        return (oldValue == null ? newValue : oldValue + " " + newValue);
+    }
+
+    /**
+     * Verify that the weight of the test is a non-negative integer.
+     *
+     * @param tagValues The map of all of the current tag values.
+     * @param value     The value of the entry currently being processed.
+     * @exception ParseException If the value for the tag does not conform to
+     *            the spec for the tag.
+     * @return    A string which contains the new value for the "weight" tag.
+     */
+    private String parseWeight(Map<String,String> tagValues, String value)
+        throws ParseException
+    {
+        String w = value.trim();
+        if (w.length() == 0 || !isDigitString(w))
+            throw new ParseException(PARSE_WEIGHT_BAD + value);
+        return w;
+    }
+
     /**
      * Given a string, determine whether it consists entirely of digits.
      *
@@ -437,6 +501,8 @@ public class RegressionTestFinder extends TagTestFinder
             add("ignore");
             add("run");
             add("build");
+            add("resource");
+            add("weight");
 
             // @key allowed only if TEST.ROOT contains a non-empty entry for
             // "key".  This is handled by the testsuite object.
@@ -449,13 +515,22 @@ public class RegressionTestFinder extends TagTestFinder
     }
 
     /**
-     * A table giving the set of valid keys for any file in the test suite.
-     * The keys are determined from TEST.ROOT and any TEST.properties
-     * files in any enclosing directories up to the root directory.
+     * A table giving the values defined in TEST.ROOT and TEST.properties files
+     * for any file in the test suite: the set of valid keys, the exclusive
+     * resources and the weight. The keys are determined from TEST.ROOT and any
+     * TEST.properties files in any enclosing directories up to the root
+     * directory. The resources are likewise accumulated from TEST.ROOT and the
+     * enclosing directories; the weight is given by the nearest enclosing
+     * directory that defines one, or by TEST.ROOT. A TEST.properties file in
+     * the root directory is not used.
      */
-    private static class ValidKeysTable {
-        ValidKeysTable(File rootDir, Set<String> rootKeys) {
-            rootCacheEntry = new CacheEntry(rootDir, rootKeys);
+    private static class TestPropertiesTable {
+        TestPropertiesTable(File rootDir, Set<String> rootKeys) {
+            rootCacheEntry = new CacheEntry(rootDir, rootKeys,
+                                            Collections.<String>emptySet(), null);
+            // the values for the root directory are given by TEST.ROOT;
+            // the keys have already been read from it
+            rootCacheEntry.init(readProperties(new File(rootDir, "TEST.ROOT")), false);
         }
 
         /**
@@ -467,10 +542,35 @@ public class RegressionTestFinder extends TagTestFinder
         synchronized Set<String> getValidKeys(File file) {
             if (!allowLocalKeys)
                 return rootCacheEntry.keys;
+            return getEntry(file).keys;
+        }
+
+        /**
+         * Get the set of exclusive resources defined for a particular file
+         * in the test suite.
+         */
+        synchronized Set<String> getResources(File file) {
+            return getEntry(file).resources;
+        }
+
+        /**
+         * Get the weight defined for a particular file in the test suite,
+         * or null if none has been defined.
+         */
+        synchronized String getWeight(File file) {
+            return getEntry(file).weight;
+        }
+
+        /**
+         * A cache is kept of the value for the directory of the last file
+         * read, to optimize the performance when processing a series of files
+         * in the same directory.
+         */
+        private CacheEntry getEntry(File file) {
             File dir = file.getParentFile();
             if (lastCacheEntry == null || !lastCacheEntry.dir.equals(dir))
                 lastCacheEntry = getCacheEntry(dir);
-            return lastCacheEntry.keys;
+            return lastCacheEntry;
         }
         // where
         private CacheEntry lastCacheEntry;
@@ -483,7 +583,8 @@ public class RegressionTestFinder extends TagTestFinder
             CacheEntry parent = getCacheEntry(dir.getParentFile());
             CacheEntry child = parent.children == null ? null : parent.children.get(dir.getName());
             if (child == null) {
-                child = new CacheEntry(dir, getLocalKeys(dir, parent.keys));
+                child = new CacheEntry(dir, parent.keys, parent.resources, parent.weight);
+                child.init(readProperties(new File(dir, "TEST.properties")), true);
                 // for a full cache, add child into parent
                 //    if (parent.children == null)
                 //        parent.children = new HashMap<String,CacheEntry>();
@@ -494,35 +595,60 @@ public class RegressionTestFinder extends TagTestFinder
             return child;
         }
 
-        private static Set<String> getLocalKeys(File dir, Set<String> parentKeys) {
-            File f = new File(dir, "TEST.properties");
+        private static Properties readProperties(File f) {
             if (f.canRead()) {
                 try {
                     BufferedInputStream in = new BufferedInputStream(new FileInputStream(f));
                     Properties p = new Properties();
                     p.load(in);
                     in.close();
-                    String k = p.getProperty("keys");
-                    if (k != null && k.trim().length() > 0) {
-                        Set<String> s = new HashSet<String>(parentKeys);
-                        s.addAll(Arrays.asList(StringArray.splitWS(k)));
-                        return s;
-                    }
+                    return p;
                 } catch (IOException ignore) {
                 }
             }
-            return parentKeys;
+            return null;
         }
 
         private static class CacheEntry {
-            CacheEntry(File dir, Set<String> keys) {
+            CacheEntry(File dir, Set<String> keys, Set<String> resources, String weight) {
                 dir.getClass();
                 this.dir = dir;
                 this.keys = keys;
+                this.resources = resources;
+                this.weight = weight;
+            }
+
+            /**
+             * Update the inherited values with those given in TEST.properties,
+             * if any.
+             */
+            void init(Properties p, boolean localKeys) {
+                if (p == null)
+                    return;
+
+                String k = p.getProperty("keys");
+                if (localKeys && k != null && k.trim().length() > 0) {
+                    Set<String> s = new HashSet<String>(keys);
+                    s.addAll(Arrays.asList(StringArray.splitWS(k)));
+                    keys = s;
+                }
+
+                String r = p.getProperty("resources");
+                if (r != null && r.trim().length() > 0) {
+                    Set<String> s = new TreeSet<String>(resources);
+                    s.addAll(Arrays.asList(StringArray.splitWS(r)));
+                    resources = s;
+                }
+
+                String w = p.getProperty("weight");
+                if (w != null && w.trim().length() > 0)
+                    weight = w.trim();
             }
 
             File dir;
             Set<String> keys;
+            Set<String> resources;
+            String weight;
             Map<String, CacheEntry> children;
         }
 
@@ -549,7 +675,10 @@ public class RegressionTestFinder extends TagTestFinder
         PARSE_KEY_EMPTY       = "No value provided for `@key'",
         PARSE_KEY_BAD         = "Invalid key: ",
         PARSE_LIB_EMPTY       = "No value provided for `@library'",
-        PARSE_LIB_AFTER_RUN   = "`@library' must appear before first `@run'";
+        PARSE_LIB_AFTER_RUN   = "`@library' must appear before first `@run'",
+        PARSE_RESOURCE_EMPTY  = "No value provided for `@resource'",
+        PARSE_WEIGHT_BAD      = "Invalid weight: ",
+        PARSE_DIR_WEIGHT_BAD  = "Invalid weight in TEST.ROOT or TEST.properties: ";
 
     private static final boolean allowLocalKeys =
             Boolean.parseBoolean(System.getProperty("javatest.regtest.allowLocalKeys", "true"));
@@ -564,6 +693,6 @@ public class RegressionTestFinder extends TagTestFinder
 
     private Set<String> rootValidKeys;
     private ValidTagNames validTagNames;
-    private ValidKeysTable validKeysTable;
+    private TestPropertiesTable testPropertiesTable;
     private boolean checkBugID;
 }
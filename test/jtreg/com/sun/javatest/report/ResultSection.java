@@ -33,11 +33,13 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 
 import com.sun.javatest.JavaTestError;
+import com.sun.javatest.ResultLog;
 import com.sun.javatest.Status;
 import com.sun.javatest.TestDescription;
 import com.sun.javatest.TestFilter;
 import com.sun.javatest.TestResult;
 import com.sun.javatest.TestResultTable;
+import com.sun.javatest.WorkDirectory;
 import com.sun.javatest.util.HTMLWriter;
 
 /**
@@ -95,6 +97,7 @@ class ResultSection extends HTMLSection {
         }
 
         resultTable = settings.ip.getWorkDirectory().getTestResultTable();
+        workDir = settings.ip.getWorkDirectory();
         initFiles = settings.getInitialFiles();
 
         lists = new SortedSet[Status.NUM_STATES];
@@ -218,7 +221,7 @@ class ResultSection extends HTMLSection {
                         String eWRPath = e.getWorkRelativePath();
                         File eFile = new File(workDirRoot, eWRPath.replace('/', File.separatorChar));
                         String eName = e.getTestName();
-                        if (eFile == null || e_s.getType() == Status.NOT_RUN)
+                        if (eFile == null || e_s.getType() == Status.NOT_RUN || !hasResultFile(eWRPath))
                             out.write(eName);
                         else
                             out.writeLink(eFile, eName);
@@ -239,6 +242,18 @@ class ResultSection extends HTMLSection {
        }
     }
 
+    /**
+     * Check if the results for a test are in their own file, which can be
+     * linked to, rather than only in the result log of the work directory.
+     */
+    private boolean hasResultFile(String workRelativePath) {
+        ResultLog rl = workDir.getResultLog();
+        if (rl != null && rl.contains(workRelativePath))
+            return false;   // any .jtr file is out of date
+        return workDir.getFile(workRelativePath).exists();
+    }
+
+    private WorkDirectory workDir;
     private File workDirRoot;
     private TestResultTable resultTable;
     private File[] initFiles;
@@ -54,6 +54,7 @@ import com.sun.javatest.FileParameters;
 import com.sun.javatest.InterviewParameters;
 import com.sun.javatest.Parameters;
 import com.sun.javatest.Status;
+import com.sun.javatest.TestRunner;
 import com.sun.javatest.TestSuite;
 import com.sun.javatest.WorkDirectory;
 import com.sun.javatest.util.DirectoryClassLoader;
@@ -228,12 +229,12 @@ public class ConfigManager
             if (num != null && (pos.getIndex() == arg.length())) {
                 value = num.intValue();
                 if (value < Parameters.ConcurrencyParameters.MIN_CONCURRENCY
-                    || value > Parameters.ConcurrencyParameters.MAX_CONCURRENCY) {
+                    || value > TestRunner.getConcurrencyLimit()) {
                     throw new Fault(i18n, "cnfg.conc.badRange",
                                     new Object[] {
                                         arg,
                                         new Integer(Parameters.ConcurrencyParameters.MIN_CONCURRENCY),
-                                        new Integer(Parameters.ConcurrencyParameters.MAX_CONCURRENCY) });
+                                        new Integer(TestRunner.getConcurrencyLimit()) });
                 }
             }
             else
@@ -35,7 +35,12 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.util.Vector;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 /**
  * An abstract base class to provide a way of opening files subject
@@ -77,50 +82,98 @@ public abstract class BackupPolicy
         if (p == null)
             throw new IOException("Cannot determine parent directory of " + file);
 
-        File dir = new File(p);
-        String[] dirFiles = dir.list();
+        // the indexes of the existing backups are cached for each directory,
+        // so that the directory does not have to be listed for every backup
+        Map dirBackups = getBackupIndexes(p);
+        synchronized (dirBackups) {
+            SortedSet backups = (SortedSet) (dirBackups.get(file.getName()));
+            int maxBackupIndex = (backups == null || backups.isEmpty() ? 0
+                                  : ((Integer) (backups.last())).intValue());
+            File backup = new File(file.getPath() + "~" + (maxBackupIndex + 1) + "~");
 
-        String prefix = file.getName() + "~";
-        String suffix = "~";
-        int maxBackupIndex = 0;
-        Vector backups = new Vector();
-    nextFile:
-        if (dirFiles != null) {
-            for (int i = 0; i < dirFiles.length; i++) {
-                String s = dirFiles[i];
-                if (s.length() > (prefix.length() + suffix.length()) &&
-                        s.startsWith(prefix) && s.endsWith(suffix)) {
-                    String mid = s.substring(prefix.length(), s.length() - suffix.length());
-                    // verify filename is numeric between prefix and suffix; if not; skip it
-                    for (int m = 0; m < mid.length(); m++)
-                        if (!Character.isDigit(mid.charAt(m)))
-                            break nextFile;
-                    // if numeric, get the backup index; ignore NumberFormatException
-                    // since is really should not happen, given preceding check
-                    int index = Integer.parseInt(mid);
-                    if (index > maxBackupIndex)
-                        maxBackupIndex = index;
-                    backups.addElement(new Integer(index));
-                }
+            if (backup.exists()) {
+                // the cached indexes are out of date, such as when backups have
+                // been made by another process; list the directory again
+                readBackupIndexes(p, dirBackups);
+                backups = (SortedSet) (dirBackups.get(file.getName()));
+                maxBackupIndex = (backups == null || backups.isEmpty() ? 0
+                                  : ((Integer) (backups.last())).intValue());
+                backup = new File(file.getPath() + "~" + (maxBackupIndex + 1) + "~");
             }
-        }
 
-        // try renaming file to file~(++maxBackupIndex)~
-        File backup = new File(file.getPath() + "~" + (++maxBackupIndex) + "~");
+            // try renaming file to file~(++maxBackupIndex)~
+            boolean ok = file.renameTo(backup);
+            if (!ok)
+                throw new IOException("failed to backup file: " + file);
 
-        boolean ok = file.renameTo(backup);
-        if (!ok)
-            throw new IOException("failed to backup file: " + file);
+            if (backups == null) {
+                backups = new TreeSet();
+                dirBackups.put(file.getName(), backups);
+            }
+            backups.add(new Integer(++maxBackupIndex));
 
-        // delete old backups
-        int numBackupsToKeep = getNumBackupsToKeep(file);
-        for (int i = 0; i < backups.size(); i++) {
-            int index = ((Integer)(backups.elementAt(i))).intValue();
-            if (index <= (maxBackupIndex-numBackupsToKeep)) {
+            // delete old backups
+            int numBackupsToKeep = getNumBackupsToKeep(file);
+            for (Iterator iter = backups.iterator(); iter.hasNext(); ) {
+                int index = ((Integer) (iter.next())).intValue();
+                if (index > (maxBackupIndex-numBackupsToKeep))
+                    break;
                 File backupToGo = new File(file.getPath() + "~" + index + "~");
                 // let SecurityExceptions out, but otherwise ignore failures
                 // to delete old backups
                 boolean ignore = backupToGo.delete();
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the indexes of the backups in a directory, listing the directory
+     * if they have not been cached. The result maps the names of files to
+     * the sorted set of the indexes of their backups, and should be
+     * synchronized on while it is used.
+     */
+    private static Map getBackupIndexes(String dir) {
+        synchronized (backupIndexes) {
+            Map dirBackups = (Map) (backupIndexes.get(dir));
+            if (dirBackups == null) {
+                dirBackups = new HashMap();
+                readBackupIndexes(dir, dirBackups);
+                backupIndexes.put(dir, dirBackups);
+            }
+            return dirBackups;
+        }
+    }
+
+    private static void readBackupIndexes(String dir, Map dirBackups) {
+        dirBackups.clear();
+        String[] dirFiles = new File(dir).list();
+        if (dirFiles == null)
+            return;
+
+        for (int i = 0; i < dirFiles.length; i++) {
+            String s = dirFiles[i];
+            int sep = s.lastIndexOf('~', s.length() - 2);
+            if (sep <= 0 || !s.endsWith("~") || s.length() < sep + 3)
+                continue;
+            String mid = s.substring(sep + 1, s.length() - 1);
+            // verify filename is numeric between prefix and suffix; if not, skip it
+            boolean numeric = true;
+            for (int m = 0; m < mid.length() && numeric; m++)
+                numeric = Character.isDigit(mid.charAt(m));
+            if (!numeric)
+                continue;
+            try {
+                String name = s.substring(0, sep);
+                SortedSet backups = (SortedSet) (dirBackups.get(name));
+                if (backups == null) {
+                    backups = new TreeSet();
+                    dirBackups.put(name, backups);
+                }
+                backups.add(Integer.valueOf(mid));
+            }
+            catch (NumberFormatException e) {
+                // ignore
             }
         }
     }
@@ -259,4 +312,13 @@ public abstract class BackupPolicy
             }
         };
     }
+
+    private static final int MAX_CACHED_DIRS = 64;
+
+    // the indexes of the backups in recently used directories
+    private static final Map backupIndexes = new LinkedHashMap(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return (size() > MAX_CACHED_DIRS);
+        }
+    };
 }
@@ -26,12 +26,15 @@
  */
 package com.sun.javatest.util;
 
-//import java.util.Date;
-import java.util.Vector;
-
 /**
  * Timer objects accept requests to call back on Timeable objects after a
  * specifiable delay.
+ * <p>
+ * Pending requests are kept in a binary heap ordered by expiration time,
+ * so that requesting and cancelling a callback take logarithmic time,
+ * regardless of the number of outstanding requests. Requests with the same
+ * expiration time are called back in the order they were made.
+ * All callbacks are made by a single daemon thread.
  *
  * @see Timeable
  */
@@ -59,13 +62,21 @@ public class Timer
      */
     public class Entry
     {
-        Entry(Timeable obj, long expiration) {
+        Entry(Timeable obj, long expiration, long seqNum) {
             this.obj = obj;
             this.expiration = expiration;
+            this.seqNum = seqNum;
+        }
+
+        boolean before(Entry other) {
+            return (expiration < other.expiration
+                    || (expiration == other.expiration && seqNum < other.seqNum));
         }
 
         Timeable obj;
         long expiration;
+        long seqNum;
+        int index = -1;     // position in heap, or -1 if not pending
     }
 
     /**
@@ -107,26 +118,15 @@ public class Timer
      * @return          An object which can be passed to cancel() to cancel this request
      */
     public synchronized Entry requestDelayedCallback(Timeable obj, long delay) {
-        try {
-            // add a new entry into a vector of entries sorted by increasing
-            // absolute callback time
-            long absCallbackTime = System.currentTimeMillis() + delay;
-            //System.out.println("timeout set for " + obj + " at " + (new Date(absCallbackTime)));
-            Entry e = new Entry(obj, absCallbackTime);
-            for (int i = 0; i < entries.size(); i++) {
-                Entry ee = (Entry)(entries.elementAt(i));
-                if (e.expiration < ee.expiration) {
-                    entries.insertElementAt(e, i);
-                    return e;
-                }
-            }
-            entries.addElement(e);
-            return e;
-        }
-        finally {
-            // kick timer thread awake to check this entry if necessary
+        long absCallbackTime = System.currentTimeMillis() + delay;
+        Entry e = new Entry(obj, absCallbackTime, nextSeqNum++);
+        add(e);
+
+        // kick timer thread awake to check this entry, if it is now
+        // the first to expire
+        if (e.index == 0)
             notify();
-        }
+        return e;
     }
 
     /**
@@ -135,9 +135,14 @@ public class Timer
      * @param e         The result of the prior call to requestDelayedEntry
      */
     public synchronized void cancel(Entry e) {
-        entries.removeElement(e);
-        // kick timer thread awake so it can exit if necessary
-        notify();
+        if (e == null || e.index < 0 || e.index >= size || heap[e.index] != e)
+            return;
+
+        boolean first = (e.index == 0);
+        remove(e.index);
+        // kick timer thread awake so it can recompute its wait if necessary
+        if (first)
+            notify();
     }
 
     /**
@@ -155,65 +160,98 @@ public class Timer
      */
     private synchronized Entry getNextEntry() throws InterruptedException {
         while (acceptingRequests) {
-            if (entries.size() == 0) {
+            if (size == 0) {
                 // nothing on list; wait until new requests come in
                 wait();
             } else {
                 long now = System.currentTimeMillis();
-                Entry e = (Entry)(entries.elementAt(0));
+                Entry e = heap[0];
                 if (e.expiration <= now) {
                     // time to call back e.obj; do so and remove it from list
-                    entries.removeElementAt(0);
+                    remove(0);
                     return e;
                 }
                 else {
                     // not ready to invoke e yet; wait until nearer the time
                     wait(e.expiration - now);
-                    // update current time
-                    now = System.currentTimeMillis();
-                    // list might have been updated during wait, so go round and
-                    // process list again
+                    // heap might have been updated during wait, so go round and
+                    // process it again
                 }
             }
         }
         return null;
     }
 
-    /**
-     * Original code ... problem is timeout is called while synchronized
-     *
-    public synchronized void run() {
-        try {
-            while (acceptingRequests) {
-                if (entries.size() == 0) {
-                    // nothing on list; wait until new requests come in
-                    wait();
-                } else {
-                    long now = System.currentTimeMillis();
-                    Entry e = (Entry)(entries.elementAt(0));
-                    if (e.expiration > now) {
-                        // not ready to invoke e yet; wait until nearer the time
-                        wait(e.expiration - now);
-                        // update current time
-                        now = System.currentTimeMillis();
-                        // list might have been updated during wait, so go round and
-                        // process list again
-                    } else {
-                        // time to call back e.obj; do so and remove it from list
-                        entries.removeElementAt(0);
-                        e.obj.timeout();
-                    }
-                    e = null; // for GC
-                }
-            }
+    //-----heap operations---------------------------------------------------------
+
+    private void add(Entry e) {
+        if (size == heap.length) {
+            Entry[] newHeap = new Entry[heap.length * 2];
+            System.arraycopy(heap, 0, newHeap, 0, size);
+            heap = newHeap;
+        }
+        heap[size] = e;
+        e.index = size;
+        size++;
+        siftUp(e.index);
+    }
+
+    private void remove(int i) {
+        Entry e = heap[i];
+        size--;
+        if (i != size) {
+            Entry last = heap[size];
+            heap[i] = last;
+            last.index = i;
+            heap[size] = null;
+            if (i > 0 && last.before(heap[(i - 1) / 2]))
+                siftUp(i);
+            else
+                siftDown(i);
         }
-        catch (InterruptedException e) {
+        else
+            heap[size] = null;
+        e.index = -1;
+    }
+
+    private void siftUp(int i) {
+        Entry e = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            Entry p = heap[parent];
+            if (!e.before(p))
+                break;
+            heap[i] = p;
+            p.index = i;
+            i = parent;
+        }
+        heap[i] = e;
+        e.index = i;
+    }
+
+    private void siftDown(int i) {
+        Entry e = heap[i];
+        int half = size / 2;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && heap[right].before(heap[child]))
+                child = right;
+            Entry c = heap[child];
+            if (!c.before(e))
+                break;
+            heap[i] = c;
+            c.index = i;
+            i = child;
         }
+        heap[i] = e;
+        e.index = i;
     }
-    */
 
     //-----member variables-------------------------------------------------------
 
-    private Vector entries = new Vector();
+    private Entry[] heap = new Entry[16];
+    private int size;
+    private long nextSeqNum;
     private boolean acceptingRequests = true;
 }
@@ -0,0 +1,102 @@
+/*
+ * $Id$
+ *
+ * Copyright 1996-2008 Sun Microsystems, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Sun designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Sun in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa Clara,
+ * CA 95054 USA or visit www.sun.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.javatest.util;
+
+import java.lang.reflect.Method;
+
+/**
+ * Utilities for creating virtual threads, on platforms that provide them.
+ * Virtual threads are only used if the system property
+ * <code>javatest.virtualThreads</code> is set to <code>true</code>, and
+ * the runtime supports them; otherwise, ordinary platform threads are
+ * created instead. The harness is compiled for older platforms, so
+ * the virtual thread API is accessed reflectively.
+ */
+public class VirtualThreads
+{
+    private VirtualThreads() { }
+
+    /**
+     * Check if the runtime supports virtual threads.
+     * @return true if and only if the runtime supports virtual threads
+     */
+    public static boolean isAvailable() {
+        return (ofVirtualMethod != null);
+    }
+
+    /**
+     * Check if virtual threads have been requested and are available.
+     * @return true if and only if new threads created by this class
+     * will be virtual threads
+     */
+    public static boolean isEnabled() {
+        return (enabled && isAvailable());
+    }
+
+    /**
+     * Create a new, unstarted thread. The thread will be a virtual thread
+     * if virtual threads are {@link #isEnabled enabled}, and a platform
+     * thread otherwise.
+     * @param name the name for the thread
+     * @param r the task to be run by the thread
+     * @return the new thread
+     */
+    public static Thread newThread(String name, Runnable r) {
+        if (isEnabled()) {
+            try {
+                Object builder = ofVirtualMethod.invoke(null, (Object[]) null);
+                builder = nameMethod.invoke(builder, new Object[] { name });
+                return (Thread) (unstartedMethod.invoke(builder, new Object[] { r }));
+            }
+            catch (Exception e) {
+                // virtual threads may be present but not usable, such as
+                // when they are a preview feature; fall back on platform threads
+                enabled = false;
+            }
+        }
+        return new Thread(r, name);
+    }
+
+    private static volatile boolean enabled = Boolean.getBoolean("javatest.virtualThreads");
+    private static Method ofVirtualMethod;
+    private static Method nameMethod;
+    private static Method unstartedMethod;
+
+    static {
+        try {
+            Class builderClass = Class.forName("java.lang.Thread$Builder");
+            Method ofVirtual = Thread.class.getMethod("ofVirtual", (Class[]) null);
+            nameMethod = builderClass.getMethod("name", new Class[] { String.class });
+            unstartedMethod = builderClass.getMethod("unstarted", new Class[] { Runnable.class });
+            ofVirtualMethod = ofVirtual;
+        }
+        catch (ClassNotFoundException e) {
+        }
+        catch (NoSuchMethodException e) {
+        }
+    }
+}